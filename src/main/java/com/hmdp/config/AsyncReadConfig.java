@@ -0,0 +1,55 @@
+package com.hmdp.config;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 异步读接口的配置，hmdp.async.enabled=true 时生效
+ * redis使用lettuce原生的异步连接，一个连接即可承载所有请求；
+ * 需要查询数据库的部分在有界线程池中执行，不占用tomcat线程
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.config
+ * @Author: ajie
+ */
+@Configuration
+@ConditionalOnProperty(name = "hmdp.async.enabled", havingValue = "true")
+public class AsyncReadConfig {
+
+    @Bean(destroyMethod = "shutdown")
+    public RedisClient asyncRedisClient(@Value("${spring.redis.host}") String host,
+                                        @Value("${spring.redis.port}") int port) {
+        return RedisClient.create(RedisURI.create(host, port));
+    }
+
+    @Bean(destroyMethod = "close")
+    public StatefulRedisConnection<String, String> asyncRedisConnection(RedisClient asyncRedisClient) {
+        return asyncRedisClient.connect();
+    }
+
+    @Bean
+    public RedisAsyncCommands<String, String> redisAsyncCommands(StatefulRedisConnection<String, String> asyncRedisConnection) {
+        return asyncRedisConnection.async();
+    }
+
+    /**
+     * 执行数据库查询的线程池，队列满时拒绝，接口返回繁忙
+     * 任务通常在lettuce的回调中提交，不能使用CallerRunsPolicy，否则数据库查询会在netty的IO线程中执行，阻塞该连接上的所有请求
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService asyncReadExecutor(@Value("${hmdp.async.db-threads:20}") int threads) {
+        return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(1024), new ThreadPoolExecutor.AbortPolicy());
+    }
+}
@@ -2,7 +2,9 @@ package com.hmdp.config;
 
 import com.hmdp.utils.LoginInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.TokenSessionStore;
+import com.hmdp.utils.UvRecorder;
+import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -15,26 +17,32 @@ import javax.annotation.Resource;
  * @Date: 2022/10/21 10:18
  * @Description: TODO
  */
+@Configuration
 public class MvcConfig implements WebMvcConfigurer {
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private TokenSessionStore tokenSessionStore;
+
+    @Resource
+    private UvRecorder uvRecorder;
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         //登录拦截器
         registry.addInterceptor(new LoginInterceptor())
                 .excludePathPatterns(
-                        "user.code",
-                        "user/login",
-                        "blog/hot",
-                        "shop/**",
-                        "shop-type/**",
-                        "upload/**",
-                        "voucher/**"
+                        "/user/code",
+                        "/user/login",
+                        "/blog/hot",
+                        "/shop/**",
+                        "/shop-type/**",
+                        "/upload/**",
+                        "/voucher/**",
+                        "/async/shop/**",
+                        "/async/blog/hot"
                 ).order(1);
         //token刷新拦截器
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate))
+        registry.addInterceptor(new RefreshTokenInterceptor(tokenSessionStore, uvRecorder))
                 .addPathPatterns("/**").order(0);
     }
 }
@@ -0,0 +1,32 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.VirtualThreads;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 开启虚拟线程时，tomcat的请求处理也运行在虚拟线程上
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.config
+ * @Author: ajie
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = VirtualThreads.ENABLED_PROPERTY, havingValue = "true")
+public class VirtualThreadConfig {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> {
+            if (!VirtualThreads.isEnabled()) {
+                return;
+            }
+            protocolHandler.setExecutor(VirtualThreads.newVirtualThreadPerTaskExecutor());
+            log.info("tomcat使用虚拟线程处理请求");
+        };
+    }
+}
@@ -0,0 +1,216 @@
+package com.hmdp.controller;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.IShopService;
+import com.hmdp.utils.ScrollCursor;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import io.lettuce.core.ScoredValue;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 热点读接口的异步版本，hmdp.async.enabled=true 时生效
+ * 返回CompletableFuture，redis的部分使用lettuce的异步命令，不占用任何线程等待；
+ * 数据库查询（以及用户缓存、blog缓存这类未命中时需要查询数据库的部分）仍然是阻塞的，在有界线程池中执行
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.controller
+ * @Author: ajie
+ */
+@RestController
+@RequestMapping("/async")
+@ConditionalOnProperty(name = "hmdp.async.enabled", havingValue = "true")
+public class AsyncReadController {
+
+    @Resource
+    private RedisAsyncCommands<String, String> redisAsyncCommands;
+
+    @Resource
+    private ExecutorService asyncReadExecutor;
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private IBlogService blogService;
+
+    /**
+     * 根据id查询商铺信息，缓存命中时完全由lettuce的异步命令完成
+     *
+     * @param id 商铺id
+     * @return 商铺详情数据
+     */
+    @GetMapping("/shop/{id}")
+    public CompletableFuture<Result> queryShopById(@PathVariable("id") Long id) {
+        return redisAsyncCommands.get(CACHE_SHOP_KEY + id).toCompletableFuture()
+                .thenCompose(shopJson -> {
+                    // 1.命中，直接返回
+                    if (StrUtil.isNotBlank(shopJson)) {
+                        return CompletableFuture.completedFuture(Result.ok(JSONUtil.toBean(shopJson, Shop.class)));
+                    }
+                    // 2.命中空值
+                    if (shopJson != null) {
+                        return CompletableFuture.completedFuture(Result.fail("店铺不存在！"));
+                    }
+                    // 3.未命中，在线程池中查询数据库并重建缓存
+                    return supplyAsync(() -> shopService.queryById(id));
+                })
+                .exceptionally(AsyncReadController::busy);
+    }
+
+    /**
+     * 根据商铺类型分页查询商铺信息
+     * 带坐标时，附近搜索的结果由lettuce的异步命令读取，只有根据id查询店铺在线程池中执行；
+     * 搜索结果未命中时在线程池中执行同步的实现，重建搜索结果；不带坐标时只有数据库查询
+     */
+    @GetMapping("/shop/of/type")
+    public CompletableFuture<Result> queryShopByType(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y
+    ) {
+        if (x == null || y == null) {
+            return supplyAsync(() -> shopService.queryShopByType(typeId, current, x, y))
+                    .exceptionally(AsyncReadController::busy);
+        }
+        // 1.读取附近搜索的结果 ZRANGE resultKey from end WITHSCORES
+        long from = (long) (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        long end = from + SystemConstants.DEFAULT_PAGE_SIZE - 1;
+        String resultKey = shopService.nearbyResultKey(typeId, x, y, SystemConstants.SHOP_GEO_DEFAULT_RADIUS);
+        return redisAsyncCommands.zrangeWithScores(resultKey, from, end).toCompletableFuture()
+                .thenCompose(tuples -> {
+                    // 2.未命中（或者已经没有下一页），由同步的实现判断并重建搜索结果
+                    if (tuples.isEmpty()) {
+                        return supplyAsync(() -> shopService.queryShopByType(typeId, current, x, y));
+                    }
+                    // 3.命中，在线程池中根据id查询店铺
+                    LinkedHashMap<Long, Double> distanceMap = new LinkedHashMap<>();
+                    for (ScoredValue<String> tuple : tuples) {
+                        distanceMap.put(Long.valueOf(tuple.getValue()), tuple.getScore());
+                    }
+                    return supplyAsync(() -> Result.ok(shopService.listWithDistance(distanceMap)));
+                })
+                .exceptionally(AsyncReadController::busy);
+    }
+
+    /**
+     * 热门blog：在线程池中查询数据库，是否点赞由lettuce的异步命令查询
+     */
+    @GetMapping("/blog/hot")
+    public CompletableFuture<Result> queryHotBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
+        UserDTO user = UserHolder.getUser();
+        return supplyAsync(() -> blogService.queryHotBlogPage(current))
+                .thenCompose(blogs -> fillBlogLiked(blogs, user).thenApply(v -> Result.ok(blogs)))
+                .exceptionally(AsyncReadController::busy);
+    }
+
+    /**
+     * 关注的人的blog：在线程池中查询收件箱和blog，是否点赞由lettuce的异步命令查询
+     */
+    @GetMapping("/blog/of/follow")
+    public CompletableFuture<Result> queryBlogOfFollow(
+            @RequestParam(value = "lastId", required = false) Long max,
+            @RequestParam(value = "next", required = false) String next,
+            @RequestParam(value = "size", defaultValue = "3") Integer size) {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            return CompletableFuture.completedFuture(Result.fail("未登录！"));
+        }
+        // 1.解析分页参数
+        int count = Math.max(1, Math.min(size, SystemConstants.MAX_PAGE_SIZE));
+        ScrollCursor cursor = null;
+        if (StrUtil.isNotBlank(next)) {
+            cursor = ScrollCursor.decode(next);
+            if (cursor == null) {
+                return CompletableFuture.completedFuture(Result.fail("分页参数错误！"));
+            }
+        }
+        ScrollCursor scrollCursor = cursor;
+        long maxTime = max == null ? System.currentTimeMillis() : max;
+        // 2.在线程池中查询收件箱、blog及作者，与同步接口共用同一个实现
+        return supplyAsync(() -> blogService.queryBlogOfFollowPage(user.getId(), scrollCursor, maxTime, count))
+                .thenCompose(r -> {
+                    if (r == null) {
+                        return CompletableFuture.completedFuture(Result.ok());
+                    }
+                    // 3.查询是否点赞
+                    @SuppressWarnings("unchecked")
+                    List<Blog> blogs = (List<Blog>) r.getList();
+                    return fillBlogLiked(blogs, user).thenApply(v -> Result.ok(r));
+                })
+                .exceptionally(AsyncReadController::busy);
+    }
+
+    /**
+     * 异步查询当前用户是否点赞了这些blog，ZSCORE同时发出
+     */
+    private CompletableFuture<Void> fillBlogLiked(List<Blog> blogs, UserDTO user) {
+        if (user == null || blogs.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String userId = user.getId().toString();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[blogs.size()];
+        for (int i = 0; i < blogs.size(); i++) {
+            Blog blog = blogs.get(i);
+            futures[i] = redisAsyncCommands.zscore(BLOG_LIKED_KEY + blog.getId(), userId).toCompletableFuture()
+                    .thenAccept(score -> blog.setIsLike(score != null));
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * 在线程池中执行，并把当前登录用户传递给执行线程
+     * 常在lettuce的回调（即netty的IO线程）中调用，因此线程池满时不能由调用线程执行，而是拒绝，见 {@link #busy(Throwable)}
+     */
+    private <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        UserDTO user = UserHolder.getUser();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                if (user != null) {
+                    UserHolder.saveUser(user);
+                }
+                try {
+                    return supplier.get();
+                } finally {
+                    UserHolder.removeUser();
+                }
+            }, asyncReadExecutor);
+        } catch (RejectedExecutionException e) {
+            // 提交时被拒绝，以异常结束，统一由busy处理
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    /**
+     * 线程池已满时返回繁忙，其他异常继续抛出，由全局异常处理
+     */
+    private static Result busy(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof RejectedExecutionException) {
+            return Result.fail("服务繁忙，请稍后重试！");
+        }
+        throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+    }
+}
@@ -62,14 +62,16 @@ public class BlogController {
     }
 
     /**
-     * 查询点赞的所有人
+     * 分页查询点赞的用户，按点赞时间排序，同时返回点赞总数
      *
      * @param id
+     * @param current
      * @return
      */
     @GetMapping("/likes/{id}")
-    public Result queryBlogLikes(@PathVariable("id") Long id) {
-        return blogService.queryBlogLikes(id);
+    public Result queryBlogLikes(@PathVariable("id") Long id,
+                                 @RequestParam(value = "current", defaultValue = "1") Integer current) {
+        return blogService.queryBlogLikes(id, current);
     }
 
     /**
@@ -93,14 +95,17 @@ public class BlogController {
 
     /**
      * 查询关注博客发布的blog，实现滚动分页查询
-     * @param max
-     * @param offset
+     * @param max 第一页的起始时间戳，不传则从当前时间开始
+     * @param next 上一次查询返回的游标，查询下一页时传入
+     * @param size 每页数量，不超过MAX_PAGE_SIZE
      * @return
      */
     @GetMapping("/of/follow")
     public Result queryBlogOfFollow(
-            @RequestParam("lastId") Long max, @RequestParam(value = "offset", defaultValue = "0") Integer offset){
-        return blogService.queryBlogOfFollow(max, offset);
+            @RequestParam(value = "lastId", required = false) Long max,
+            @RequestParam(value = "next", required = false) String next,
+            @RequestParam(value = "size", defaultValue = "3") Integer size){
+        return blogService.queryBlogOfFollow(max, next, size);
     }
 
 }
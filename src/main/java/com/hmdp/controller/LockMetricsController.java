@@ -0,0 +1,37 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.LockMetrics;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 锁的统计数据
+ * </p>
+ *
+ * @author ajie
+ */
+@RestController
+@RequestMapping("/metrics")
+public class LockMetricsController {
+
+    @Resource
+    private LockMetrics lockMetrics;
+
+    /**
+     * 按分组的获取耗时、持有时间直方图、失败次数，以及竞争最多的锁
+     *
+     * @param top 返回竞争最多的锁的数量
+     * @return 统计数据
+     */
+    @GetMapping("/locks")
+    public Result queryLockMetrics(@RequestParam(value = "top", defaultValue = "20") Integer top) {
+        return Result.ok(lockMetrics.snapshot(top));
+    }
+}
@@ -0,0 +1,35 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.SlidingWindowRateLimiter;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 限流的统计数据
+ * </p>
+ *
+ * @author ajie
+ */
+@RestController
+@RequestMapping("/metrics")
+public class RateLimitMetricsController {
+
+    @Resource
+    private SlidingWindowRateLimiter rateLimiter;
+
+    /**
+     * 每个限流规则被拒绝的次数
+     *
+     * @return 限流规则 -> 拒绝次数
+     */
+    @GetMapping("/rate-limits")
+    public Result queryRateLimitMetrics() {
+        return Result.ok(rateLimiter.getRejectedCounts());
+    }
+}
@@ -45,10 +45,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库，并加入GEO索引
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -80,6 +78,33 @@ public class ShopController {
         return shopService.queryShopByType(typeId, current, x, y);
     }
 
+    /**
+     * 附近商铺：在半径范围内按距离、评分或销量排序，可只看正在营业的商铺
+     *
+     * @param typeId  商铺类型
+     * @param x       经度
+     * @param y       纬度
+     * @param radius  搜索半径，单位米
+     * @param sortBy  排序方式：distance、score、sold
+     * @param openNow 是否只看正在营业的商铺
+     * @param current 页码
+     * @param size    每页数量
+     * @return 商铺列表
+     */
+    @GetMapping("/of/nearby")
+    public Result queryNearbyShops(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam("x") Double x,
+            @RequestParam("y") Double y,
+            @RequestParam(value = "radius", required = false) Integer radius,
+            @RequestParam(value = "sortBy", defaultValue = "distance") String sortBy,
+            @RequestParam(value = "openNow", defaultValue = "false") Boolean openNow,
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "size", required = false) Integer size
+    ) {
+        return shopService.queryNearbyShops(typeId, x, y, radius, sortBy, openNow, current, size);
+    }
+
     /**
      * 根据商铺名称关键字分页查询商铺信息
      *
@@ -0,0 +1,52 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IStatService;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 日活、签到统计
+ * </p>
+ *
+ * @author ajie
+ */
+@RestController
+@RequestMapping("/stat")
+public class StatController {
+
+    @Resource
+    private IStatService statService;
+
+    /**
+     * 日活统计
+     *
+     * @param begin 开始日期，yyyyMMdd
+     * @param end   结束日期（含），yyyyMMdd，默认与开始日期相同
+     * @return 每天的UV以及区间内去重后的总UV
+     */
+    @GetMapping("/uv")
+    public Result queryUv(@RequestParam("begin") String begin,
+                          @RequestParam(value = "end", required = false) String end) {
+        return statService.queryUv(begin, end);
+    }
+
+    /**
+     * 签到人数统计
+     *
+     * @param dates 日期列表，yyyyMMdd，逗号分隔
+     * @param op    and：所有日期都签到的人数，or：任意一天签到的人数
+     * @return 人数
+     */
+    @GetMapping("/sign")
+    public Result querySignCount(@RequestParam("dates") String dates,
+                                 @RequestParam(value = "op", defaultValue = "and") String op) {
+        return statService.querySignCount(dates, op);
+    }
+}
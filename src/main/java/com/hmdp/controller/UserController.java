@@ -1,19 +1,20 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
-import com.hmdp.entity.User;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.ClientIpResolver;
+import com.hmdp.utils.UserCache;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 
 /**
@@ -35,13 +36,19 @@ public class UserController {
     @Resource
     private IUserInfoService userInfoService;
 
+    @Resource
+    private UserCache userCache;
+
+    @Resource
+    private ClientIpResolver clientIpResolver;
+
     /**
      * 发送手机验证码
      */
     @PostMapping("code")
-    public Result sendCode(@RequestParam("phone") String phone, HttpSession session) {
+    public Result sendCode(@RequestParam("phone") String phone, HttpServletRequest request, HttpSession session) {
         // 发送短信验证码并保存验证码
-        return userService.sendCode(phone, session);
+        return userService.sendCode(phone, clientIpResolver.resolve(request), session);
     }
 
     /**
@@ -50,20 +57,30 @@ public class UserController {
      * @param loginForm 登录参数，包含手机号、验证码；或者手机号、密码
      */
     @PostMapping("/login")
-    public Result login(@RequestBody LoginFormDTO loginForm, HttpSession session) {
+    public Result login(@RequestBody LoginFormDTO loginForm, HttpServletRequest request, HttpSession session) {
         // 实现登录功能
-        return userService.login(loginForm, session);
+        return userService.login(loginForm, clientIpResolver.resolve(request), session);
     }
 
     /**
      * 登出功能
      *
+     * @param token 请求头中的登录令牌
      * @return 无
      */
     @PostMapping("/logout")
-    public Result logout() {
-        // TODO 实现登出功能
-        return Result.fail("功能未完成");
+    public Result logout(@RequestHeader(value = "authorization", required = false) String token) {
+        return userService.logout(token);
+    }
+
+    /**
+     * 登出当前用户的全部登录
+     *
+     * @return 无
+     */
+    @PostMapping("/logout/all")
+    public Result logoutAll() {
+        return userService.logoutAll();
     }
 
     @GetMapping("/me")
@@ -95,12 +112,11 @@ public class UserController {
      */
     @GetMapping("/{id}")
     public Result queryUserById(@PathVariable("id") Long userId) {
-        // 查询详情
-        User user = userService.getById(userId);
-        if (user == null) {
+        // 查询用户缓存
+        UserDTO userDTO = userCache.get(userId);
+        if (userDTO == null) {
             return Result.ok();
         }
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
         // 返回
         return Result.ok(userDTO);
     }
@@ -126,4 +142,15 @@ public class UserController {
         return userService.signCount();
     }
 
+    /**
+     * 月度签到统计：签到总天数、当前连续签到天数、最长连续签到天数和签到日历
+     *
+     * @param month 月份，格式yyyyMM，默认本月
+     * @return
+     */
+    @GetMapping("/sign/stats")
+    public Result signStats(@RequestParam(value = "month", required = false) String month) {
+        return userService.signStats(month);
+    }
+
 }
@@ -8,5 +8,8 @@ import java.util.List;
 public class ScrollResult {
     private List<?> list;
     private Long minTime;
-    private Integer offset;
+    /**
+     * 下一页的游标，查询下一页时原样传回
+     */
+    private String next;
 }
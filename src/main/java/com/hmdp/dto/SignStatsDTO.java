@@ -0,0 +1,36 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 月度签到统计
+ */
+@Data
+public class SignStatsDTO {
+    /**
+     * 月份，yyyyMM
+     */
+    private String month;
+    /**
+     * 本月签到总天数
+     */
+    private Long total;
+    /**
+     * 截止到今天（往月为月末）的连续签到天数，包含之前月份的连续签到
+     */
+    private Integer currentStreak;
+    /**
+     * 本月最长连续签到天数
+     */
+    private Integer longestStreak;
+    /**
+     * 签到日历，第 day-1 位表示第day天是否签到
+     */
+    private Integer bitmap;
+    /**
+     * 签到的日期
+     */
+    private List<Integer> days;
+}
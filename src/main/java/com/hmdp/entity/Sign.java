@@ -0,0 +1,59 @@
+package com.hmdp.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+
+/**
+ * <p>
+ * 按月归档的签到记录
+ * </p>
+ *
+ * @author ajie
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@Accessors(chain = true)
+@TableName("tb_sign")
+public class Sign implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 主键
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 用户id
+     */
+    private Long userId;
+
+    /**
+     * 签到的年
+     */
+    private Integer year;
+
+    /**
+     * 签到的月
+     */
+    private Integer month;
+
+    /**
+     * 当月的签到bitmap，第 day-1 位表示第day天
+     */
+    private Integer bits;
+
+    /**
+     * 是否补签
+     */
+    private Boolean isBackup;
+
+
+}
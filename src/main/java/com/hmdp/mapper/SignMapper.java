@@ -0,0 +1,22 @@
+package com.hmdp.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.entity.Sign;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * <p>
+ *  Mapper 接口
+ * </p>
+ *
+ * @author ajie
+ */
+public interface SignMapper extends BaseMapper<Sign> {
+
+    /**
+     * 批量写入，同一用户同一月份已存在时合并bitmap
+     */
+    int upsertBatch(@Param("signs") List<Sign> signs);
+}
@@ -1,8 +1,12 @@
 package com.hmdp.service;
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.utils.ScrollCursor;
+
+import java.util.List;
 
 /**
  * <p>
@@ -15,14 +19,29 @@ import com.baomidou.mybatisplus.extension.service.IService;
 public interface IBlogService extends IService<Blog> {
     Result queryHotBlog(Integer current);
 
+    /**
+     * 查询热门blog的一页及其作者，不包含是否点赞
+     */
+    List<Blog> queryHotBlogPage(Integer current);
+
     Result queryBlogById(Long id);
 
 
     Result likeBlog(Long id);
 
-    Result queryBlogLikes(Long id);
+    Result queryBlogLikes(Long id, Integer current);
 
     Result saveBlog(Blog blog);
 
-    Result queryBlogOfFollow(Long max, Integer offset);
+    Result queryBlogOfFollow(Long max, String next, Integer size);
+
+    /**
+     * 查询关注的人的blog的一页及其作者，不包含是否点赞
+     * 同步接口和异步接口共用，收件箱不足一页且已被裁剪过时从数据库补齐
+     *
+     * @param cursor  上一页的游标，第一页为null
+     * @param maxTime 第一页的起始时间戳
+     * @return 没有数据时返回null
+     */
+    ScrollResult queryBlogOfFollowPage(Long userId, ScrollCursor cursor, long maxTime, int count);
 }
@@ -4,6 +4,9 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * <p>
  *  服务类
@@ -16,7 +19,24 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    Result saveShop(Shop shop);
+
     Result update(Shop shop);
 
     Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    Result queryNearbyShops(Integer typeId, Double x, Double y, Integer radius,
+                            String sortBy, Boolean openNow, Integer current, Integer size);
+
+    void reconcileGeo();
+
+    /**
+     * 附近搜索结果的临时zset的key
+     */
+    String nearbyResultKey(Integer typeId, double x, double y, int radius);
+
+    /**
+     * 按给定的顺序查询店铺，并设置距离
+     */
+    List<Shop> listWithDistance(Map<Long, Double> distanceMap);
 }
@@ -0,0 +1,25 @@
+package com.hmdp.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.entity.Sign;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * 服务类
+ * </p>
+ *
+ * @author ajie
+ */
+public interface ISignService extends IService<Sign> {
+
+    Map<YearMonth, Integer> queryMonthBits(Long userId, List<YearMonth> months);
+
+    int countStreak(Long userId, LocalDate date);
+
+    void archive();
+}
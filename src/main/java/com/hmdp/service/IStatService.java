@@ -0,0 +1,17 @@
+package com.hmdp.service;
+
+import com.hmdp.dto.Result;
+
+/**
+ * <p>
+ * 日活、签到统计的服务类
+ * </p>
+ *
+ * @author ajie
+ */
+public interface IStatService {
+
+    Result queryUv(String begin, String end);
+
+    Result querySignCount(String dates, String op);
+}
@@ -17,11 +17,17 @@ import javax.servlet.http.HttpSession;
  */
 public interface IUserService extends IService<User> {
 
-    Result sendCode(String phone, HttpSession session);
+    Result sendCode(String phone, String ip, HttpSession session);
 
-    Result login(LoginFormDTO loginForm, HttpSession session);
+    Result login(LoginFormDTO loginForm, String ip, HttpSession session);
+
+    Result logout(String token);
+
+    Result logoutAll();
 
     Result sign();
 
     Result signCount();
+
+    Result signStats(String month);
 }
@@ -1,7 +1,9 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
@@ -9,26 +11,37 @@ import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IFollowService;
-import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.ScrollCursor;
 import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserCache;
 import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.VirtualThreads;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Set;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
-import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
-import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -38,10 +51,11 @@ import static com.hmdp.utils.RedisConstants.FEED_KEY;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
     @Resource
-    private IUserService userService;
+    private UserCache userCache;
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
@@ -49,27 +63,58 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private IFollowService followService;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    //查询收件箱一页的lua脚本
+    private static final DefaultRedisScript<List<String>> FEED_PAGE_SCRIPT;
+
+    //初始化lua脚本
+    static {
+        FEED_PAGE_SCRIPT = new DefaultRedisScript<>();
+        FEED_PAGE_SCRIPT.setLocation(new ClassPathResource("feed_page.lua"));
+        @SuppressWarnings("unchecked")
+        Class<List<String>> resultType = (Class<List<String>>) (Class<?>) List.class;
+        FEED_PAGE_SCRIPT.setResultType(resultType);
+    }
+
+    //推送笔记的线程池
+    private static final ExecutorService FEED_FANOUT_EXECUTOR = VirtualThreads.newSingleThreadExecutor();
+
+    //类初始化时启动推送线程
+    @PostConstruct
+    private void init() {
+        FEED_FANOUT_EXECUTOR.submit(new FeedFanoutHandler());
+    }
+
     @Override
     public Result queryHotBlog(Integer current) {
+        // 查询当前页数据和作者
+        List<Blog> records = queryHotBlogPage(current);
+        // 查询是否被点赞
+        records.forEach(this::isBlogLiked);
+        return Result.ok(records);
+    }
+
+    @Override
+    public List<Blog> queryHotBlogPage(Integer current) {
         // 根据用户查询
         Page<Blog> page = query()
                 .orderByDesc("liked")
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            this.queryBlogUser(blog);
-            this.isBlogLiked(blog);
-        });
-        return Result.ok(records);
+        // 批量查询用户
+        this.queryBlogUsers(records);
+        return records;
     }
 
 
     @Override
     public Result queryBlogById(Long id) {
         //1、查询blog
-        Blog blog = this.getById(id);
+        Blog blog = cacheClient.queryWithPassThrough(CACHE_BLOG_KEY, id, Blog.class,
+                this::getById, CACHE_BLOG_TTL, TimeUnit.MINUTES);
         if (blog == null) {
             return Result.fail("blog不存在");
         }
@@ -101,11 +146,32 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      */
     private void queryBlogUser(Blog blog) {
         Long userId = blog.getUserId();
-        User user = userService.getById(userId);
+        UserDTO user = userCache.get(userId);
+        if (user == null) {
+            return;
+        }
         blog.setName(user.getNickName());
         blog.setIcon(user.getIcon());
     }
 
+    /**
+     * 批量查询blog的用户，通过用户缓存一次查询所有作者
+     *
+     * @param blogs
+     */
+    private void queryBlogUsers(List<Blog> blogs) {
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).distinct().collect(Collectors.toList());
+        Map<Long, UserDTO> userMap = userCache.getAll(userIds).stream()
+                .collect(Collectors.toMap(UserDTO::getId, user -> user));
+        for (Blog blog : blogs) {
+            UserDTO user = userMap.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
+    }
+
     @Override
     public Result likeBlog(Long id) {
         //1、获取用户
@@ -124,6 +190,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             //3.2、保存用户到redis的set集合中 zadd key value score
             if (isSuccess) {
                 stringRedisTemplate.opsForZSet().add(key, userId.toString(), System.currentTimeMillis());
+                //3.3、点赞数变化，删除blog缓存
+                stringRedisTemplate.delete(CACHE_BLOG_KEY + id);
             }
         } else {
             //4、如果已点赞，可以取消点赞
@@ -135,30 +203,46 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             //4.2、将用户从redis的set集合中删除
             if (isSuccess) {
                 stringRedisTemplate.opsForZSet().remove(key, userId.toString());
+                //4.3、点赞数变化，删除blog缓存
+                stringRedisTemplate.delete(CACHE_BLOG_KEY + id);
             }
         }
         return Result.ok();
     }
 
     @Override
-    public Result queryBlogLikes(Long id) {
+    public Result queryBlogLikes(Long id, Integer current) {
+        int page = current == null || current < 1 ? 1 : current;
+        //1、查询短期缓存的分页结果，热门blog被反复打开时不需要再访问redis的zset和数据库
+        String cacheKey = CACHE_BLOG_LIKES_KEY + id + ":" + page;
+        String json = stringRedisTemplate.opsForValue().get(cacheKey);
+        if (StrUtil.isNotBlank(json)) {
+            JSONObject cached = JSONUtil.parseObj(json);
+            return Result.ok(cached.getJSONArray("list").toList(UserDTO.class), cached.getLong("total"));
+        }
+        //2、一次pipeline中查询点赞总数和当前页的点赞用户 zcard key; zrange key from end
         String key = BLOG_LIKED_KEY + id;
-        //1、查询top5的点赞用户 zrange key 0 4
-        Set<String> top5 = stringRedisTemplate.opsForZSet().range(key, 0, 4);
-        if (top5 == null || top5.isEmpty()) {
-            return Result.ok(Collections.emptyList());
-        }
-        //2、解析出用户id
-        List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
-        String idStr = StrUtil.join(",", ids);
-        //3、根据id查询用户
-        List<UserDTO> userDTOList = userService.query().in("id", ids)
-                .last("ORDER BY FIELD (id," + idStr + ")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
-        //4、返回
-        return Result.ok(userDTOList);
+        long from = (long) (page - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        long end = from + SystemConstants.DEFAULT_PAGE_SIZE - 1;
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.zCard(key);
+            conn.zRange(key, from, end);
+            return null;
+        });
+        Long total = (Long) results.get(0);
+        @SuppressWarnings("unchecked")
+        Set<String> members = (Set<String>) results.get(1);
+        //3、解析出用户id，通过用户缓存批量查询用户
+        List<Long> ids = members == null ? Collections.emptyList()
+                : members.stream().map(Long::valueOf).collect(Collectors.toList());
+        List<UserDTO> userDTOList = userCache.getAll(ids);
+        //4、写入短期缓存并返回
+        long count = total == null ? 0L : total;
+        stringRedisTemplate.opsForValue().set(cacheKey,
+                JSONUtil.createObj().set("total", count).set("list", userDTOList).toString(),
+                CACHE_BLOG_LIKES_TTL, TimeUnit.SECONDS);
+        return Result.ok(userDTOList, count);
     }
 
     @Override
@@ -166,73 +250,286 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         // 1.获取登录用户
         UserDTO user = UserHolder.getUser();
         blog.setUserId(user.getId());
+        // 发布时间精确到秒，与数据库中的create_time保持一致，收件箱的分数即为该时间
+        LocalDateTime createTime = LocalDateTime.now().withNano(0);
+        blog.setCreateTime(createTime);
         // 2.保存探店笔记
         boolean isSuccess = save(blog);
         if (!isSuccess) {
             return Result.fail("新增笔记失败!");
         }
-        // 3.查询笔记作者的所有粉丝 select * from tb_follow where follow_user_id = ?
-        List<Follow> follows = followService.query()
-                .eq("follow_user_id", user.getId()).list();
-        // 4.推送笔记id给所有粉丝
-        for (Follow follow : follows) {
-            // 4.1.获取粉丝id
-            Long userId = follow.getUserId();
-            // 4.2.推送
-            String key = FEED_KEY + userId;
-            stringRedisTemplate.opsForZSet()
-                    .add(key, blog.getId().toString(), System.currentTimeMillis());
-        }
-        // 5.返回id
+        // 3.发送推送消息到队列，由后台线程分批推送给粉丝 XADD stream.feed * blogId .. userId .. time ..
+        Map<String, String> message = new HashMap<>(4);
+        message.put("blogId", blog.getId().toString());
+        message.put("userId", user.getId().toString());
+        message.put("time", String.valueOf(toEpochMilli(createTime)));
+        stringRedisTemplate.opsForStream().add(FEED_STREAM_KEY, message);
+        // 4.返回id
         return Result.ok(blog.getId());
     }
 
+    /**
+     * 笔记推送任务：消费stream.feed中的消息，分批查询粉丝并用pipeline写入收件箱
+     */
+    private class FeedFanoutHandler implements Runnable {
+        @Override
+        public void run() {
+            // 0.创建消费者组（已存在时忽略）XGROUP CREATE stream.feed g1 0 MKSTREAM
+            createGroupIfAbsent();
+            while (true) {
+                try {
+                    // 1.获取消息队列中的推送消息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS stream.feed >
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from("g1", "c1"),
+                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
+                            StreamOffset.create(FEED_STREAM_KEY, ReadOffset.lastConsumed())
+                    );
+                    // 2.判断消息是否为空
+                    if (list == null || list.isEmpty()) {
+                        continue;
+                    }
+                    // 3.推送给粉丝
+                    MapRecord<String, Object, Object> record = list.get(0);
+                    handleFeedFanout(record.getValue());
+                    // 4.确认消息 XACK stream.feed g1 id
+                    stringRedisTemplate.opsForStream().acknowledge(FEED_STREAM_KEY, "g1", record.getId());
+                } catch (Exception e) {
+                    log.error("推送笔记异常", e);
+                    handlePendingList();
+                }
+            }
+        }
+
+        private void handlePendingList() {
+            while (true) {
+                try {
+                    // 1.获取pending-list中的推送消息 XREADGROUP GROUP g1 c1 COUNT 1 STREAMS stream.feed 0
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from("g1", "c1"),
+                            StreamReadOptions.empty().count(1),
+                            StreamOffset.create(FEED_STREAM_KEY, ReadOffset.from("0"))
+                    );
+                    // 2.pending-list中没有异常消息，结束
+                    if (list == null || list.isEmpty()) {
+                        break;
+                    }
+                    // 3.从上次记录的进度继续推送
+                    MapRecord<String, Object, Object> record = list.get(0);
+                    handleFeedFanout(record.getValue());
+                    // 4.确认消息
+                    stringRedisTemplate.opsForStream().acknowledge(FEED_STREAM_KEY, "g1", record.getId());
+                } catch (Exception e) {
+                    log.error("处理pending-list推送消息异常", e);
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            }
+        }
+
+        private void createGroupIfAbsent() {
+            try {
+                stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                        .xGroupCreate(FEED_STREAM_KEY.getBytes(StandardCharsets.UTF_8), "g1", ReadOffset.from("0"), true));
+            } catch (Exception e) {
+                // BUSYGROUP，消费者组已经存在
+                log.debug("消费者组已存在: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 把笔记推送到作者所有粉丝的收件箱
+     * 按tb_follow主键分批（keyset）查询粉丝，每批用pipeline写入，并记录推送进度，失败重试时从进度处继续
+     *
+     * @param values 推送消息：blogId、userId（作者）、time（发布时间）
+     */
+    private void handleFeedFanout(Map<Object, Object> values) {
+        // 收件箱的成员是补齐长度的id，同一时间戳的笔记按id倒序
+        String blogId = ScrollCursor.toMember(Long.parseLong(values.get("blogId").toString()));
+        Long authorId = Long.valueOf(values.get("userId").toString());
+        double time = Double.parseDouble(values.get("time").toString());
+        // 1.读取推送进度（已推送的最后一个tb_follow主键）
+        String progressKey = FEED_FANOUT_PROGRESS_KEY + blogId;
+        String progress = stringRedisTemplate.opsForValue().get(progressKey);
+        long lastId = progress == null ? 0L : Long.parseLong(progress);
+        while (true) {
+            // 2.查询下一批粉丝 select id, user_id from tb_follow where follow_user_id = ? and id > ? order by id limit ?
+            List<Follow> follows = followService.query()
+                    .select("id", "user_id")
+                    .eq("follow_user_id", authorId)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + SystemConstants.FEED_FANOUT_BATCH_SIZE)
+                    .list();
+            if (follows.isEmpty()) {
+                break;
+            }
+            // 3.pipeline批量写入粉丝收件箱 ZADD feed:userId time blogId
+            // 并裁剪收件箱，只保留最新的FEED_INBOX_MAX_SIZE条 ZREMRANGEBYRANK feed:userId 0 -(max+1)
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Follow follow : follows) {
+                    String key = FEED_KEY + follow.getUserId();
+                    conn.zAdd(key, time, blogId);
+                    conn.zRemRange(key, 0, -(SystemConstants.FEED_INBOX_MAX_SIZE + 1));
+                }
+                return null;
+            });
+            // 4.记录推送进度
+            lastId = follows.get(follows.size() - 1).getId();
+            stringRedisTemplate.opsForValue().set(progressKey, String.valueOf(lastId), FEED_FANOUT_PROGRESS_TTL, TimeUnit.DAYS);
+            if (follows.size() < SystemConstants.FEED_FANOUT_BATCH_SIZE) {
+                break;
+            }
+        }
+        // 5.推送完成，清除进度
+        stringRedisTemplate.delete(progressKey);
+    }
+
     @Override
-    public Result queryBlogOfFollow(Long max, Integer offset) {
+    public Result queryBlogOfFollow(Long max, String next, Integer size) {
         // 1.获取当前用户
         Long userId = UserHolder.getUser().getId();
-        // 2.查询收件箱 ZREVRANGEBYSCORE key Max Min LIMIT offset count
-        String key = FEED_KEY + userId;
-        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
-                .reverseRangeByScoreWithScores(key, 0, max, offset, 3);
-        // 3.非空判断
-        if (typedTuples == null || typedTuples.isEmpty()) {
+        // 2.解析分页参数：每页数量不超过MAX_PAGE_SIZE，游标记录了上一页最后一条笔记的时间戳和id
+        int count = size == null ? SystemConstants.FEED_PAGE_SIZE
+                : Math.max(1, Math.min(size, SystemConstants.MAX_PAGE_SIZE));
+        ScrollCursor cursor = null;
+        if (StrUtil.isNotBlank(next)) {
+            cursor = ScrollCursor.decode(next);
+            if (cursor == null) {
+                return Result.fail("分页参数错误！");
+            }
+        }
+        long maxTime = max == null ? System.currentTimeMillis() : max;
+        // 3.查询收件箱、blog及作者
+        ScrollResult r = queryBlogOfFollowPage(userId, cursor, maxTime, count);
+        if (r == null) {
             return Result.ok();
         }
-        // 4.解析数据：blogId、minTime（时间戳）、offset
-        List<Long> ids = new ArrayList<>(typedTuples.size());
-        long minTime = 0; // 2
-        int os = 1; // 2
-        for (ZSetOperations.TypedTuple<String> tuple : typedTuples) { // 5 4 4 2 2
-            // 4.1.获取id
-            ids.add(Long.valueOf(tuple.getValue()));
-            // 4.2.获取分数(时间戳）
-            long time = tuple.getScore().longValue();
-            if(time == minTime){
-                os++;
-            }else{
-                minTime = time;
-                os = 1;
-            }
+        // 4.查询blog是否被点赞
+        for (Object blog : r.getList()) {
+            isBlogLiked((Blog) blog);
         }
+        return Result.ok(r);
+    }
 
-        // 5.根据id查询blog
-        String idStr = StrUtil.join(",", ids);
-        List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
+    @Override
+    public ScrollResult queryBlogOfFollowPage(Long userId, ScrollCursor cursor, long maxTime, int count) {
+        // 1.查询收件箱
+        String key = FEED_KEY + userId;
+        List<ScrollCursor> entries = queryFeedInbox(key, cursor, maxTime, count);
+        boolean trimmed = entries.size() < count && isFeedTrimmed(key);
 
-        for (Blog blog : blogs) {
-            // 5.1.查询blog有关的用户
-            queryBlogUser(blog);
-            // 5.2.查询blog是否被点赞
-            isBlogLiked(blog);
+        // 2.根据id查询blog，优先批量读取缓存，未命中的再查询数据库，并按收件箱中的顺序排列
+        List<Long> ids = entries.stream().map(ScrollCursor::getId).collect(Collectors.toList());
+        List<Blog> blogs = cacheClient.queryBatchWithPassThrough(CACHE_BLOG_KEY, ids, Blog.class,
+                this::listByIds, Blog::getId, CACHE_BLOG_TTL, TimeUnit.MINUTES);
+
+        // 2.1.收件箱中不足一页，且收件箱已被裁剪过，说明更早的笔记已不在redis中，从数据库补齐
+        if (trimmed) {
+            ScrollCursor last = entries.isEmpty() ? cursor : entries.get(entries.size() - 1);
+            List<Blog> olderBlogs = queryBlogOfFollowFromDb(userId, last, maxTime, count - entries.size());
+            for (Blog blog : olderBlogs) {
+                blogs.add(blog);
+                entries.add(new ScrollCursor(toEpochMilli(blog.getCreateTime()), blog.getId()));
+            }
+        }
+        if (entries.isEmpty()) {
+            return null;
         }
 
-        // 6.封装并返回
+        // 3.批量查询blog有关的用户
+        queryBlogUsers(blogs);
+
+        // 4.封装并返回，最后一条笔记作为下一页的游标
+        ScrollCursor last = entries.get(entries.size() - 1);
         ScrollResult r = new ScrollResult();
         r.setList(blogs);
-        r.setOffset(os);
-        r.setMinTime(minTime);
+        r.setMinTime(last.getScore());
+        r.setNext(last.encode());
+        return r;
+    }
 
-        return Result.ok(r);
+    /**
+     * 查询收件箱中的一页笔记，按 (分数, id) 倒序排列，与数据库的 (create_time, id) 倒序一致
+     * 第一页 ZREVRANGEBYSCORE key max 0 WITHSCORES LIMIT 0 count
+     * 有游标时不再按分数重新读取与游标同分数的笔记，而是在lua脚本中定位游标的排名，取其后的count条（见 feed_page.lua）
+     *
+     * @return 笔记id及其分数
+     */
+    private List<ScrollCursor> queryFeedInbox(String key, ScrollCursor cursor, long max, int count) {
+        List<String> page = stringRedisTemplate.execute(
+                FEED_PAGE_SCRIPT,
+                Collections.singletonList(key),
+                String.valueOf(count),
+                String.valueOf(cursor == null ? max : cursor.getScore()),
+                cursor == null ? "" : cursor.getMember()
+        );
+        List<ScrollCursor> entries = new ArrayList<>(count);
+        if (page == null) {
+            return entries;
+        }
+        // 结果为 member1, score1, member2, score2...
+        for (int i = 0; i + 1 < page.size(); i += 2) {
+            long score = (long) Double.parseDouble(page.get(i + 1));
+            entries.add(new ScrollCursor(score, ScrollCursor.parseMember(page.get(i))));
+        }
+        return entries;
+    }
+
+    /**
+     * 收件箱是否已达到容量上限（说明推送时裁剪过旧的笔记）
+     */
+    private boolean isFeedTrimmed(String key) {
+        Long size = stringRedisTemplate.opsForZSet().zCard(key);
+        return size != null && size >= SystemConstants.FEED_INBOX_MAX_SIZE;
+    }
+
+    /**
+     * 从数据库查询关注的作者发布的笔记，按(create_time, id)倒序做keyset分页，与收件箱的顺序一致
+     *
+     * @param userId 当前用户
+     * @param cursor 上一条笔记的游标，为null时查询不晚于max的笔记
+     * @param max    第一页的起始时间戳
+     * @param count  查询数量
+     */
+    private List<Blog> queryBlogOfFollowFromDb(Long userId, ScrollCursor cursor, long max, int count) {
+        // 1.查询关注的作者 select follow_user_id from tb_follow where user_id = ?
+        List<Long> followUserIds = followService.query()
+                .select("follow_user_id")
+                .eq("user_id", userId)
+                .list()
+                .stream()
+                .map(Follow::getFollowUserId)
+                .collect(Collectors.toList());
+        if (followUserIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 2.select * from tb_blog where user_id in (...)
+        //   and (create_time < ? or (create_time = ? and id < ?)) order by create_time desc, id desc limit ?
+        QueryChainWrapper<Blog> wrapper = query().in("user_id", followUserIds);
+        if (cursor == null) {
+            wrapper.le("create_time", toLocalDateTime(max));
+        } else {
+            LocalDateTime time = toLocalDateTime(cursor.getScore());
+            long lastId = cursor.getId();
+            wrapper.and(w -> w.lt("create_time", time)
+                    .or(o -> o.eq("create_time", time).lt("id", lastId)));
+        }
+        return wrapper
+                .orderByDesc("create_time", "id")
+                .last("LIMIT " + count)
+                .list();
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMilli) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMilli), ZoneId.systemDefault());
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
     }
 }
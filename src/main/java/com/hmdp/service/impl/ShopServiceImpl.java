@@ -1,5 +1,6 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.NumberUtil;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
@@ -8,18 +9,33 @@ import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.LockMetrics;
+import com.hmdp.utils.RedisScanUtils;
+import com.hmdp.utils.ShopAttributeTable;
+import com.hmdp.utils.SimpleRedisLock;
 import com.hmdp.utils.SystemConstants;
-import org.springframework.data.geo.Distance;
-import org.springframework.data.geo.GeoResult;
-import org.springframework.data.geo.GeoResults;
-import org.springframework.data.redis.connection.RedisGeoCommands;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.domain.geo.GeoReference;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.time.LocalTime;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -31,6 +47,7 @@ import static com.hmdp.utils.RedisConstants.*;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
@@ -40,6 +57,39 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private ShopAttributeTable shopAttributeTable;
+
+    @Resource
+    private LockMetrics lockMetrics;
+
+    /**
+     * 对账时GEOPOS和数据库坐标允许的误差（度），geohash保存的坐标精度不到1米
+     */
+    private static final double GEO_POSITION_TOLERANCE = 1e-5;
+
+    private static final DefaultRedisScript<Long> GEO_SEARCH_STORE_SCRIPT;
+
+    //初始化lua脚本
+    static {
+        GEO_SEARCH_STORE_SCRIPT = new DefaultRedisScript<>();
+        GEO_SEARCH_STORE_SCRIPT.setLocation(new ClassPathResource("geo_search_store.lua"));
+        GEO_SEARCH_STORE_SCRIPT.setResultType(Long.class);
+    }
+
+    //GEO索引对账的线程池
+    private static final ScheduledExecutorService SHOP_GEO_RECONCILE_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    @PostConstruct
+    private void init() {
+        SHOP_GEO_RECONCILE_EXECUTOR.scheduleWithFixedDelay(this::reconcileGeo, 1, SHOP_GEO_RECONCILE_INTERVAL, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        SHOP_GEO_RECONCILE_EXECUTOR.shutdown();
+    }
+
     @Override
     public Result queryById(Long id) {
         //缓存穿透
@@ -231,19 +281,213 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     }
      */
 
+    @Override
+    public Result saveShop(Shop shop) {
+        //1、写入数据库
+        this.save(shop);
+        //2、加入GEO索引和店铺属性表
+        syncGeo(null, shop);
+        shopAttributeTable.put(shop);
+        //3、返回店铺id
+        return Result.ok(shop.getId());
+    }
+
     @Override
     public Result update(Shop shop) {
         Long id = shop.getId();
         if (id == null) {
             return Result.fail("店铺id不能为空");
         }
-        //1、更新数据库
+        //1、查询修改前的店铺，用于判断类型是否变化
+        Shop old = getById(id);
+        if (old == null) {
+            return Result.fail("店铺不存在！");
+        }
+        //2、更新数据库
         this.updateById(shop);
-        //2、删除缓存
+        //3、删除缓存
         stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        //4、更新GEO索引和店铺属性表，请求中可能只有部分字段，以数据库中的最新数据为准
+        Shop current = getById(id);
+        if (current == null) {
+            // 更新期间店铺被删除了，从GEO索引和属性表中移除，失败时由对账任务修复
+            shopAttributeTable.remove(id);
+            if (old.getTypeId() != null) {
+                try {
+                    stringRedisTemplate.opsForZSet().remove(SHOP_GEO_KEY + old.getTypeId(), id.toString());
+                } catch (Exception e) {
+                    log.error("更新店铺GEO索引异常，店铺id：{}", id, e);
+                }
+            }
+            return Result.ok();
+        }
+        syncGeo(old, current);
+        shopAttributeTable.put(current);
         return Result.ok();
     }
 
+    /**
+     * 店铺写入后同步GEO索引：类型变化时从原来类型的GEO中删除，再按最新的坐标GEOADD
+     * 这里失败不影响写入，由定期的对账任务修复
+     */
+    private void syncGeo(Shop old, Shop current) {
+        String member = current.getId().toString();
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                if (old != null && old.getTypeId() != null && !old.getTypeId().equals(current.getTypeId())) {
+                    conn.zRem(SHOP_GEO_KEY + old.getTypeId(), member);
+                }
+                if (current.getTypeId() == null) {
+                    return null;
+                }
+                String key = SHOP_GEO_KEY + current.getTypeId();
+                if (current.getX() != null && current.getY() != null) {
+                    conn.geoAdd(key, new Point(current.getX(), current.getY()), member);
+                } else {
+                    conn.zRem(key, member);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("更新店铺GEO索引异常，店铺id：{}", member, e);
+        }
+    }
+
+    /**
+     * GEO索引对账：分批比较数据库和 shop:geo:{typeId}，补充缺失或坐标不一致的店铺，删除已经不存在或类型已经变化的店铺
+     * 多个节点之间通过分布式锁保证同一时间只有一个节点在对账
+     */
+    @Override
+    public void reconcileGeo() {
+        ILock lock = lockMetrics.instrument("shop:geo:reconcile", new SimpleRedisLock("shop:geo:reconcile", stringRedisTemplate));
+        if (!lock.tryLock(TimeUnit.MINUTES.toSeconds(SHOP_GEO_RECONCILE_INTERVAL))) {
+            // 其他节点正在对账
+            return;
+        }
+        try {
+            // 1.数据库 -> GEO，按id分批
+            int added = 0;
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = query()
+                        .select("id", "type_id", "x", "y")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + SystemConstants.SHOP_GEO_RECONCILE_BATCH_SIZE)
+                        .list();
+                added += addMissingGeo(shops);
+                if (shops.size() < SystemConstants.SHOP_GEO_RECONCILE_BATCH_SIZE) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            // 2.GEO -> 数据库，逐个类型ZSCAN
+            int removed = 0;
+            for (Long typeId : scanGeoTypeIds()) {
+                removed += removeStaleGeo(typeId);
+            }
+            log.debug("店铺GEO索引对账完成，补充：{}，删除：{}", added, removed);
+        } catch (Exception e) {
+            log.error("店铺GEO索引对账异常", e);
+        } finally {
+            try {
+                lock.unlock();
+            } catch (IllegalMonitorStateException e) {
+                // 定时任务中不能抛出，否则后续的调度会停止
+                log.warn("店铺GEO索引对账期间锁已经过期，其他节点可能同时在对账", e);
+            }
+        }
+    }
+
+    private int addMissingGeo(List<Shop> shops) {
+        // 1.按类型分组，每个类型一次GEOPOS
+        Map<Long, List<Shop>> byType = new HashMap<>();
+        for (Shop shop : shops) {
+            if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+                byType.computeIfAbsent(shop.getTypeId(), k -> new ArrayList<>()).add(shop);
+            }
+        }
+        int added = 0;
+        for (Map.Entry<Long, List<Shop>> entry : byType.entrySet()) {
+            String key = SHOP_GEO_KEY + entry.getKey();
+            List<Shop> list = entry.getValue();
+            String[] members = list.stream().map(shop -> shop.getId().toString()).toArray(String[]::new);
+            List<Point> positions = stringRedisTemplate.opsForGeo().position(key, members);
+            // 2.不存在或者坐标不一致的重新GEOADD，geohash有精度损失，允许少量误差
+            Map<String, Point> missing = new HashMap<>();
+            for (int i = 0; i < list.size(); i++) {
+                Shop shop = list.get(i);
+                Point point = positions == null || positions.size() <= i ? null : positions.get(i);
+                if (point == null
+                        || Math.abs(point.getX() - shop.getX()) > GEO_POSITION_TOLERANCE
+                        || Math.abs(point.getY() - shop.getY()) > GEO_POSITION_TOLERANCE) {
+                    missing.put(members[i], new Point(shop.getX(), shop.getY()));
+                }
+            }
+            if (!missing.isEmpty()) {
+                stringRedisTemplate.opsForGeo().add(key, missing);
+                added += missing.size();
+            }
+        }
+        return added;
+    }
+
+    private int removeStaleGeo(Long typeId) {
+        String key = SHOP_GEO_KEY + typeId;
+        int removed = 0;
+        ScanOptions options = ScanOptions.scanOptions().count(SystemConstants.SHOP_GEO_RECONCILE_BATCH_SIZE).build();
+        try (Cursor<ZSetOperations.TypedTuple<String>> cursor = stringRedisTemplate.opsForZSet().scan(key, options)) {
+            List<Long> batch = new ArrayList<>(SystemConstants.SHOP_GEO_RECONCILE_BATCH_SIZE);
+            while (cursor.hasNext()) {
+                String member = cursor.next().getValue();
+                if (!NumberUtil.isLong(member)) {
+                    continue;
+                }
+                batch.add(Long.valueOf(member));
+                if (batch.size() >= SystemConstants.SHOP_GEO_RECONCILE_BATCH_SIZE) {
+                    removed += removeStaleGeo(key, typeId, batch);
+                    batch = new ArrayList<>(SystemConstants.SHOP_GEO_RECONCILE_BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty()) {
+                removed += removeStaleGeo(key, typeId, batch);
+            }
+        }
+        return removed;
+    }
+
+    private int removeStaleGeo(String key, Long typeId, List<Long> ids) {
+        // 数据库中仍属于这个类型、并且有坐标的店铺
+        Set<Long> valid = new HashSet<>();
+        for (Shop shop : query().select("id", "type_id", "x", "y").in("id", ids).list()) {
+            if (typeId.equals(shop.getTypeId()) && shop.getX() != null && shop.getY() != null) {
+                valid.add(shop.getId());
+            }
+        }
+        String[] stale = ids.stream().filter(id -> !valid.contains(id)).map(String::valueOf).toArray(String[]::new);
+        if (stale.length > 0) {
+            stringRedisTemplate.opsForZSet().remove(key, (Object[]) stale);
+        }
+        return stale.length;
+    }
+
+    /**
+     * SCAN出所有 shop:geo:{typeId}，跳过附近搜索的临时结果 shop:geo:result:*
+     */
+    private List<Long> scanGeoTypeIds() {
+        List<Long> typeIds = new ArrayList<>();
+        RedisScanUtils.scan(stringRedisTemplate, SHOP_GEO_KEY + "*", SystemConstants.SHOP_GEO_RECONCILE_BATCH_SIZE, keys -> {
+            for (String key : keys) {
+                String suffix = key.substring(SHOP_GEO_KEY.length());
+                if (NumberUtil.isLong(suffix)) {
+                    typeIds.add(Long.valueOf(suffix));
+                }
+            }
+        });
+        return typeIds;
+    }
+
     @Override
     public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
         // 1.判断是否需要根据坐标查询
@@ -261,45 +505,164 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
 
         // 3.查询redis、按照距离排序、分页。结果：shopId、distance
-        String key = SHOP_GEO_KEY + typeId;
-        // GEOSEARCH key BYLONLAT x y BYRADIUS 10 WITHDISTANCE
-        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo()
-                .search(
-                        key,
-                        GeoReference.fromCoordinate(x, y),
-                        new Distance(5000),
-                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs()
-                                .includeDistance().limit(end)
-                );
-        // 4.解析出id
-        if (results == null) {
+        Map<Long, Double> distanceMap = searchNearby(typeId, x, y, SystemConstants.SHOP_GEO_DEFAULT_RADIUS, from, end - 1);
+        if (distanceMap.isEmpty()) {
+            // 没有下一页了，结束
             return Result.ok(Collections.emptyList());
         }
-        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
-        if (list.size() <= from) {
-            // 没有下一页了，结束
+        // 4.根据id查询Shop，返回
+        return Result.ok(listWithDistance(distanceMap));
+    }
+
+    @Override
+    public Result queryNearbyShops(Integer typeId, Double x, Double y, Integer radius,
+                                   String sortBy, Boolean openNow, Integer current, Integer size) {
+        // 1.校验参数
+        Comparator<Map.Entry<Long, Double>> comparator = nearbyComparator(sortBy);
+        if (comparator == null) {
+            return Result.fail("不支持的排序方式！");
+        }
+        int r = radius == null ? SystemConstants.SHOP_GEO_DEFAULT_RADIUS
+                : Math.max(1, Math.min(radius, SystemConstants.SHOP_GEO_MAX_RADIUS));
+        // 半径向上取整到固定的档位，相同档位的请求共用同一份搜索结果，超出请求半径的在内存中过滤
+        int searchRadius = roundRadius(r);
+        int pageSize = size == null ? SystemConstants.DEFAULT_PAGE_SIZE
+                : Math.max(1, Math.min(size, SystemConstants.MAX_PAGE_SIZE));
+        int from = (Math.max(current, 1) - 1) * pageSize;
+
+        // 2.查询范围内的候选店铺，按距离升序
+        Map<Long, Double> candidates = searchNearby(typeId, x, y, searchRadius, 0, SystemConstants.SHOP_GEO_MAX_CANDIDATES - 1);
+        if (candidates.size() <= from) {
             return Result.ok(Collections.emptyList());
         }
-        // 4.1.截取 from ~ end的部分
-        List<Long> ids = new ArrayList<>(list.size());
-        Map<String, Distance> distanceMap = new HashMap<>(list.size());
-
-        list.stream().skip(from).forEach(result -> {
-            // 4.2.获取店铺id
-            String shopIdStr = result.getContent().getName();
-            ids.add(Long.valueOf(shopIdStr));
-            // 4.3.获取距离
-            Distance distance = result.getDistance();
-            distanceMap.put(shopIdStr, distance);
-        });
-        // 5.根据id查询Shop
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids)
+        // 3.根据内存中的店铺属性过滤、排序、分页
+        LocalTime now = LocalTime.now();
+        boolean onlyOpen = Boolean.TRUE.equals(openNow);
+        LinkedHashMap<Long, Double> distanceMap = new LinkedHashMap<>();
+        candidates.entrySet().stream()
+                .filter(e -> e.getValue() <= r)
+                .filter(e -> !onlyOpen || isOpen(e.getKey(), now))
+                // 稳定排序，同分的店铺仍按距离升序
+                .sorted(comparator)
+                .skip(from)
+                .limit(pageSize)
+                .forEach(e -> distanceMap.put(e.getKey(), e.getValue()));
+        if (distanceMap.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 4.根据id查询当前页的Shop，返回
+        return Result.ok(listWithDistance(distanceMap));
+    }
+
+    /**
+     * 向上取整到 SHOP_GEO_RADIUS_STEPS 中的档位
+     */
+    private static int roundRadius(int radius) {
+        for (int step : SystemConstants.SHOP_GEO_RADIUS_STEPS) {
+            if (radius <= step) {
+                return step;
+            }
+        }
+        return SystemConstants.SHOP_GEO_MAX_RADIUS;
+    }
+
+    /**
+     * 附近搜索的排序方式：distance（默认）、score、sold
+     *
+     * @return 不支持的排序方式返回null
+     */
+    private Comparator<Map.Entry<Long, Double>> nearbyComparator(String sortBy) {
+        if (StrUtil.isBlank(sortBy) || "distance".equals(sortBy)) {
+            return Map.Entry.comparingByValue();
+        }
+        if ("score".equals(sortBy)) {
+            return Comparator.comparingInt((Map.Entry<Long, Double> e) -> attribute(e.getKey(), ShopAttributeTable.Attributes::getScore)).reversed();
+        }
+        if ("sold".equals(sortBy)) {
+            return Comparator.comparingInt((Map.Entry<Long, Double> e) -> attribute(e.getKey(), ShopAttributeTable.Attributes::getSold)).reversed();
+        }
+        return null;
+    }
+
+    private int attribute(Long shopId, ToIntFunction<ShopAttributeTable.Attributes> getter) {
+        ShopAttributeTable.Attributes attributes = shopAttributeTable.get(shopId);
+        // 还没有加载到属性表的店铺排在最后
+        return attributes == null ? Integer.MIN_VALUE : getter.applyAsInt(attributes);
+    }
+
+    private boolean isOpen(Long shopId, LocalTime now) {
+        ShopAttributeTable.Attributes attributes = shopAttributeTable.get(shopId);
+        return attributes != null && attributes.isOpen(now);
+    }
+
+    @Override
+    public String nearbyResultKey(Integer typeId, double x, double y, int radius) {
+        return SHOP_GEO_RESULT_KEY + nearbyKeySuffix(typeId, x, y, radius);
+    }
+
+    private static String nearbyKeySuffix(Integer typeId, double x, double y, int radius) {
+        return typeId + ":" + roundCoordinate(x) + ":" + roundCoordinate(y) + ":" + radius;
+    }
+
+    /**
+     * 坐标保留三位小数（约100米）
+     */
+    private static double roundCoordinate(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    @Override
+    public List<Shop> listWithDistance(Map<Long, Double> distanceMap) {
+        String idStr = StrUtil.join(",", distanceMap.keySet());
+        List<Shop> shops = query().in("id", distanceMap.keySet())
                 .last("ORDER BY FIELD(id," + idStr + ")").list();
         for (Shop shop : shops) {
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+            shop.setDistance(distanceMap.get(shop.getId()));
+        }
+        return shops;
+    }
+
+    /**
+     * 查询附近的店铺，按距离升序的第 from ~ to 条（含）
+     * 搜索结果通过 GEOSEARCHSTORE ... STOREDIST 保存到临时的zset中（分数为距离），短时间内的翻页直接 ZRANGE，
+     * 每一页的开销与页码无关；坐标保留三位小数（约100米），相近位置的请求共用同一份结果；
+     * 最多保存最近的 SHOP_GEO_MAX_CANDIDATES 个店铺，避免大半径的搜索在redis中保存整个城市的店铺
+     * 没有店铺时写入空结果标记，有效期较短（SHOP_GEO_EMPTY_TTL），该位置新增的店铺最多延迟这么久出现
+     *
+     * @return 店铺id -> 距离（米），按距离升序
+     */
+    private LinkedHashMap<Long, Double> searchNearby(Integer typeId, double x, double y, int radius, long from, long to) {
+        double roundX = roundCoordinate(x);
+        double roundY = roundCoordinate(y);
+        String resultKey = nearbyResultKey(typeId, x, y, radius);
+        String emptyKey = SHOP_GEO_EMPTY_KEY + nearbyKeySuffix(typeId, x, y, radius);
+        // 1.查询缓存的搜索结果 ZRANGE resultKey from to WITHSCORES
+        Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet().rangeWithScores(resultKey, from, to);
+        if (tuples == null || tuples.isEmpty()) {
+            // 1.1.结果存在（已经没有下一页），或者搜索结果为空的标记存在，不再搜索 EXISTS resultKey emptyKey
+            Long exists = stringRedisTemplate.countExistingKeys(Arrays.asList(resultKey, emptyKey));
+            if (exists != null && exists > 0) {
+                return new LinkedHashMap<>();
+            }
+            // 2.没有缓存的结果，执行lua脚本搜索并保存，同时设置有效期；没有店铺时写入空结果标记
+            Long count = stringRedisTemplate.execute(
+                    GEO_SEARCH_STORE_SCRIPT,
+                    Arrays.asList(SHOP_GEO_KEY + typeId, resultKey, emptyKey),
+                    String.valueOf(roundX), String.valueOf(roundY), String.valueOf(radius), SHOP_GEO_RESULT_TTL.toString(),
+                    String.valueOf(SystemConstants.SHOP_GEO_MAX_CANDIDATES), SHOP_GEO_EMPTY_TTL.toString()
+            );
+            if (count == null || count == 0) {
+                return new LinkedHashMap<>();
+            }
+            tuples = stringRedisTemplate.opsForZSet().rangeWithScores(resultKey, from, to);
+        }
+        // 3.解析出id和距离
+        LinkedHashMap<Long, Double> distanceMap = new LinkedHashMap<>();
+        if (tuples != null) {
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                distanceMap.put(Long.valueOf(tuple.getValue()), tuple.getScore());
+            }
         }
-        // 6.返回
-        return Result.ok(shops);
+        return distanceMap;
     }
 }
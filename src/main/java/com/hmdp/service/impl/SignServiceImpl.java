@@ -0,0 +1,223 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.util.NumberUtil;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.entity.Sign;
+import com.hmdp.mapper.SignMapper;
+import com.hmdp.service.ISignService;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.LockMetrics;
+import com.hmdp.utils.RedisScanUtils;
+import com.hmdp.utils.SignBitmaps;
+import com.hmdp.utils.SimpleRedisLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.SIGN_ARCHIVE_BATCH_SIZE;
+import static com.hmdp.utils.SystemConstants.SIGN_STREAK_BATCH_MONTHS;
+
+/**
+ * <p>
+ * 签到记录的服务实现类
+ * 本月及尚未归档的月份保存在redis的bitmap中（sign:{userId}:yyyyMM），
+ * 已结束的月份由归档任务写入tb_sign（每个用户每月一行），之后redis中的key设置过期时间
+ * </p>
+ *
+ * @author ajie
+ */
+@Slf4j
+@Service
+public class SignServiceImpl extends ServiceImpl<SignMapper, Sign> implements ISignService {
+
+    private static final DateTimeFormatter SIGN_MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyyMM");
+
+    //归档任务的线程池
+    private static final ScheduledExecutorService SIGN_ARCHIVE_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private LockMetrics lockMetrics;
+
+    @PostConstruct
+    private void init() {
+        SIGN_ARCHIVE_EXECUTOR.scheduleWithFixedDelay(this::archive, 1, SIGN_ARCHIVE_INTERVAL, TimeUnit.HOURS);
+    }
+
+    /**
+     * 查询多个月份的签到bitmap，优先读redis，redis中不存在的月份再批量查询数据库
+     *
+     * @return 月份 -> bitmap，没有签到的月份为0
+     */
+    @Override
+    public Map<YearMonth, Integer> queryMonthBits(Long userId, List<YearMonth> months) {
+        // 1.pipeline批量读取redis中的bitmap
+        RedisSerializer<String> serializer = stringRedisTemplate.getStringSerializer();
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (YearMonth month : months) {
+                connection.stringCommands().get(serializer.serialize(signKey(userId, month)));
+            }
+            return null;
+        }, RedisSerializer.byteArray());
+        Map<YearMonth, Integer> bitsMap = new HashMap<>(months.size());
+        List<YearMonth> missing = new ArrayList<>();
+        for (int i = 0; i < months.size(); i++) {
+            byte[] bytes = (byte[]) results.get(i);
+            if (bytes == null) {
+                missing.add(months.get(i));
+                bitsMap.put(months.get(i), 0);
+            } else {
+                bitsMap.put(months.get(i), SignBitmaps.fromBytes(bytes));
+            }
+        }
+        if (missing.isEmpty()) {
+            return bitsMap;
+        }
+        // 2.redis中不存在的月份，可能已经归档，查询数据库
+        Set<Integer> years = new HashSet<>();
+        Set<Integer> monthValues = new HashSet<>();
+        for (YearMonth month : missing) {
+            years.add(month.getYear());
+            monthValues.add(month.getMonthValue());
+        }
+        List<Sign> signs = query().eq("user_id", userId).in("year", years).in("month", monthValues).list();
+        for (Sign sign : signs) {
+            YearMonth month = YearMonth.of(sign.getYear(), sign.getMonth());
+            if (missing.contains(month)) {
+                bitsMap.put(month, sign.getBits());
+            }
+        }
+        return bitsMap;
+    }
+
+    /**
+     * 截止到date（含）的连续签到天数，跨月时继续向前查询之前月份的签到记录
+     * 每次批量查询 SIGN_STREAK_BATCH_MONTHS 个月，遇到中断的一天即停止
+     */
+    @Override
+    public int countStreak(Long userId, LocalDate date) {
+        YearMonth current = YearMonth.from(date);
+        int streak = 0;
+        while (true) {
+            // 1.本批次的月份，从近到远
+            List<YearMonth> months = new ArrayList<>(SIGN_STREAK_BATCH_MONTHS);
+            for (int i = 0; i < SIGN_STREAK_BATCH_MONTHS; i++) {
+                months.add(current.minusMonths(i));
+            }
+            Map<YearMonth, Integer> bitsMap = queryMonthBits(userId, months);
+            // 2.逐月累加，某个月没有从月末一直签到到当前统计的那天，说明连续签到在这个月中断
+            for (YearMonth month : months) {
+                int lastDay = month.equals(YearMonth.from(date)) ? date.getDayOfMonth() : month.lengthOfMonth();
+                int monthStreak = SignBitmaps.streakEndingAt(bitsMap.get(month), lastDay);
+                streak += monthStreak;
+                if (monthStreak < lastDay) {
+                    return streak;
+                }
+            }
+            current = current.minusMonths(SIGN_STREAK_BATCH_MONTHS);
+        }
+    }
+
+    /**
+     * 归档：把已经结束的月份的签到bitmap写入数据库，并让redis中的key在一段时间后过期
+     * 多个节点之间通过分布式锁保证同一时间只有一个节点在归档
+     */
+    @Override
+    public void archive() {
+        ILock lock = lockMetrics.instrument("sign:archive", new SimpleRedisLock("sign:archive", stringRedisTemplate));
+        if (!lock.tryLock(TimeUnit.HOURS.toSeconds(SIGN_ARCHIVE_INTERVAL))) {
+            // 其他节点正在归档
+            return;
+        }
+        try {
+            String currentMonth = YearMonth.now().format(SIGN_MONTH_FORMATTER);
+            RedisScanUtils.scan(stringRedisTemplate, USER_SIGN_KEY + "*", SIGN_ARCHIVE_BATCH_SIZE, keys -> archiveBatch(keys, currentMonth));
+        } catch (Exception e) {
+            log.error("签到记录归档异常", e);
+        } finally {
+            try {
+                lock.unlock();
+            } catch (IllegalMonitorStateException e) {
+                // 定时任务中不能抛出，否则后续的调度会停止
+                log.warn("签到记录归档期间锁已经过期，其他节点可能同时在归档", e);
+            }
+        }
+    }
+
+    private void archiveBatch(List<String> keys, String currentMonth) {
+        // 1.只处理 sign:{userId}:yyyyMM 格式、且月份已经结束的key
+        List<String> closedKeys = new ArrayList<>();
+        for (String key : keys) {
+            String[] parts = key.split(":");
+            if (parts.length == 3 && NumberUtil.isLong(parts[1])
+                    && parts[2].length() == 6 && NumberUtil.isInteger(parts[2])
+                    && parts[2].compareTo(currentMonth) < 0) {
+                closedKeys.add(key);
+            }
+        }
+        if (closedKeys.isEmpty()) {
+            return;
+        }
+        // 2.pipeline批量读取bitmap和剩余有效期
+        RedisSerializer<String> serializer = stringRedisTemplate.getStringSerializer();
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : closedKeys) {
+                byte[] rawKey = serializer.serialize(key);
+                connection.stringCommands().get(rawKey);
+                connection.keyCommands().ttl(rawKey);
+            }
+            return null;
+        }, RedisSerializer.byteArray());
+        // 3.已经设置了过期时间的key说明已经归档过
+        List<Sign> signs = new ArrayList<>();
+        List<String> archivedKeys = new ArrayList<>();
+        for (int i = 0; i < closedKeys.size(); i++) {
+            byte[] bytes = (byte[]) results.get(i * 2);
+            Object ttl = results.get(i * 2 + 1);
+            if (bytes == null || !(ttl instanceof Long) || (Long) ttl != -1) {
+                continue;
+            }
+            String[] parts = closedKeys.get(i).split(":");
+            YearMonth month = YearMonth.parse(parts[2], SIGN_MONTH_FORMATTER);
+            signs.add(new Sign()
+                    .setUserId(Long.valueOf(parts[1]))
+                    .setYear(month.getYear())
+                    .setMonth(month.getMonthValue())
+                    .setBits(SignBitmaps.fromBytes(bytes)));
+            archivedKeys.add(closedKeys.get(i));
+        }
+        if (signs.isEmpty()) {
+            return;
+        }
+        // 4.批量写入数据库，重复归档时合并bitmap
+        getBaseMapper().upsertBatch(signs);
+        // 5.写入成功后再让redis中的key过期，过期之前读取仍然走redis
+        long ttlSeconds = TimeUnit.DAYS.toSeconds(USER_SIGN_ARCHIVED_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : archivedKeys) {
+                connection.keyCommands().expire(serializer.serialize(key), ttlSeconds);
+            }
+            return null;
+        });
+        log.debug("归档签到记录: {}", signs.size());
+    }
+
+    private static String signKey(Long userId, YearMonth month) {
+        return USER_SIGN_KEY + userId + ":" + month.format(SIGN_MONTH_FORMATTER);
+    }
+}
@@ -0,0 +1,144 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.service.IStatService;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * <p>
+ * 日活、签到统计的服务实现类
+ * 日活来自每天的HyperLogLog（stat:uv:yyyyMMdd），签到人数来自每天的签到bitmap（stat:sign:yyyyMMdd，偏移量为用户id），
+ * 内存占用固定，不需要扫描数据库
+ * </p>
+ *
+ * @author ajie
+ */
+@Service
+public class StatServiceImpl implements IStatService {
+
+    private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    /**
+     * 一次最多统计的天数
+     */
+    private static final int MAX_DAYS = 31;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 日活统计，区间内多天时返回每天的UV以及去重后的总UV
+     *
+     * @param begin 开始日期，yyyyMMdd
+     * @param end   结束日期（含），yyyyMMdd，默认与开始日期相同
+     */
+    @Override
+    public Result queryUv(String begin, String end) {
+        // 1.解析日期
+        List<String> days;
+        try {
+            LocalDate beginDate = LocalDate.parse(begin, DAY_FORMATTER);
+            LocalDate endDate = StrUtil.isBlank(end) ? beginDate : LocalDate.parse(end, DAY_FORMATTER);
+            long count = ChronoUnit.DAYS.between(beginDate, endDate) + 1;
+            if (count <= 0 || count > MAX_DAYS) {
+                return Result.fail("日期区间错误，最多统计" + MAX_DAYS + "天！");
+            }
+            days = new ArrayList<>((int) count);
+            for (LocalDate day = beginDate; !day.isAfter(endDate); day = day.plusDays(1)) {
+                days.add(day.format(DAY_FORMATTER));
+            }
+        } catch (DateTimeParseException e) {
+            return Result.fail("日期格式错误！");
+        }
+        // 2.pipeline查询每天的UV，以及所有天合并后的UV
+        String[] keys = days.stream().map(day -> STAT_UV_KEY + day).toArray(String[]::new);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String key : keys) {
+                conn.pfCount(key);
+            }
+            conn.pfCount(keys);
+            return null;
+        });
+        // 3.返回
+        Map<String, Object> data = new LinkedHashMap<>();
+        Map<String, Long> daily = new LinkedHashMap<>();
+        for (int i = 0; i < days.size(); i++) {
+            daily.put(days.get(i), (Long) results.get(i));
+        }
+        data.put("daily", daily);
+        data.put("total", results.get(days.size()));
+        return Result.ok(data);
+    }
+
+    /**
+     * 签到人数统计
+     *
+     * @param dates 日期列表，yyyyMMdd，逗号分隔
+     * @param op    and：所有日期都签到的人数（留存），or：任意一天签到的人数
+     */
+    @Override
+    public Result querySignCount(String dates, String op) {
+        // 1.解析参数
+        RedisStringCommands.BitOperation bitOp;
+        if (StrUtil.isBlank(op) || "and".equalsIgnoreCase(op)) {
+            bitOp = RedisStringCommands.BitOperation.AND;
+        } else if ("or".equalsIgnoreCase(op)) {
+            bitOp = RedisStringCommands.BitOperation.OR;
+        } else {
+            return Result.fail("不支持的统计方式！");
+        }
+        List<String> days = StrUtil.split(dates, ',', true, true);
+        if (days.isEmpty() || days.size() > MAX_DAYS) {
+            return Result.fail("日期数量错误，最多统计" + MAX_DAYS + "天！");
+        }
+        try {
+            for (String day : days) {
+                LocalDate.parse(day, DAY_FORMATTER);
+            }
+        } catch (DateTimeParseException e) {
+            return Result.fail("日期格式错误！");
+        }
+        // 2.只有一天时直接BITCOUNT
+        if (days.size() == 1) {
+            Long count = stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                    ((StringRedisConnection) connection).bitCount(STAT_SIGN_KEY + days.get(0)));
+            return Result.ok(count == null ? 0L : count);
+        }
+        // 3.多天时BITOP合并到临时key再BITCOUNT，临时key按日期和操作命名，短时间内的重复查询可以直接复用
+        Collections.sort(days);
+        String[] keys = days.stream().map(day -> STAT_SIGN_KEY + day).toArray(String[]::new);
+        String destKey = STAT_SIGN_COHORT_KEY + bitOp.name().toLowerCase() + ":" + String.join(",", days);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.exists(destKey);
+            conn.bitCount(destKey);
+            return null;
+        });
+        if (Boolean.TRUE.equals(results.get(0))) {
+            return Result.ok(results.get(1));
+        }
+        results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.bitOp(bitOp, destKey, keys);
+            conn.expire(destKey, STAT_SIGN_COHORT_TTL);
+            conn.bitCount(destKey);
+            return null;
+        });
+        return Result.ok(results.get(2));
+    }
+}
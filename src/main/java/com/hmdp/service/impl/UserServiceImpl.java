@@ -1,34 +1,44 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
-import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.SignStatsDTO;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
+import com.hmdp.service.ISignService;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.SignBitmaps;
+import com.hmdp.utils.SlidingWindowRateLimiter;
+import com.hmdp.utils.TokenSessionStore;
+import com.hmdp.utils.UserCache;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.*;
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
 import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
 
 /**
@@ -46,13 +56,52 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private TokenSessionStore tokenSessionStore;
+
+    @Resource
+    private SlidingWindowRateLimiter rateLimiter;
+
+    @Resource
+    private UserCache userCache;
+
+    @Resource
+    private ISignService signService;
+
+    private static final DateTimeFormatter SIGN_MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyyMM");
+
+    /**
+     * 限流窗口（秒）
+     */
+    @Value("${hmdp.rate-limit.window:3600}")
+    private long rateLimitWindow;
+
+    @Value("${hmdp.rate-limit.code-per-phone:5}")
+    private int codeLimitPerPhone;
+
+    @Value("${hmdp.rate-limit.code-per-ip:20}")
+    private int codeLimitPerIp;
+
+    @Value("${hmdp.rate-limit.login-per-phone:10}")
+    private int loginLimitPerPhone;
+
+    @Value("${hmdp.rate-limit.login-per-ip:50}")
+    private int loginLimitPerIp;
+
     @Override
-    public Result sendCode(String phone, HttpSession session) {
+    public Result sendCode(String phone, String ip, HttpSession session) {
         // 1.校验手机号
         if (RegexUtils.isPhoneInvalid(phone)) {
             // 2.如果不符合，返回错误信息
             return Result.fail("手机号格式错误！");
         }
+        // 2.1.按手机号和IP限流
+        // 两条规则在一次lua脚本中判断，都未达到上限才计数，避免一条规则拒绝时另一条规则的额度被白白消耗
+        if (!rateLimiter.tryAcquire(rateLimitWindow, TimeUnit.SECONDS,
+                new SlidingWindowRateLimiter.Quota("code:phone", phone, codeLimitPerPhone),
+                new SlidingWindowRateLimiter.Quota("code:ip", ip, codeLimitPerIp))) {
+            return Result.fail("发送验证码过于频繁，请稍后再试！");
+        }
         // 3.符合，生成验证码
         String code = RandomUtil.randomNumbers(6);
 
@@ -66,13 +115,20 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     }
 
     @Override
-    public Result login(LoginFormDTO loginForm, HttpSession session) {
+    public Result login(LoginFormDTO loginForm, String ip, HttpSession session) {
         // 1.校验手机号
         String phone = loginForm.getPhone();
         if (RegexUtils.isPhoneInvalid(phone)) {
             // 2.如果不符合，返回错误信息
             return Result.fail("手机号格式错误！");
         }
+        // 2.1.按手机号和IP限流
+        // 两条规则在一次lua脚本中判断，都未达到上限才计数，避免一条规则拒绝时另一条规则的额度被白白消耗
+        if (!rateLimiter.tryAcquire(rateLimitWindow, TimeUnit.SECONDS,
+                new SlidingWindowRateLimiter.Quota("login:phone", phone, loginLimitPerPhone),
+                new SlidingWindowRateLimiter.Quota("login:ip", ip, loginLimitPerIp))) {
+            return Result.fail("登录过于频繁，请稍后再试！");
+        }
         // 3.从redis获取验证码并校验
         String cacheCode = stringRedisTemplate.opsForValue().get(LOGIN_CODE_KEY + phone);
         String code = loginForm.getCode();
@@ -81,34 +137,45 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
             return Result.fail("验证码错误");
         }
 
-        // 4.一致，根据手机号查询用户 select * from tb_user where phone = ?
-        User user = query().eq("phone", phone).one();
+        // 4.一致，根据手机号查询用户，优先查询用户缓存 select * from tb_user where phone = ?
+        UserDTO userDTO = userCache.getByPhone(phone);
 
         // 5.判断用户是否存在
-        if (user == null) {
+        if (userDTO == null) {
             // 6.不存在，创建新用户并保存
-            user = createUserWithPhone(phone);
+            User user = createUserWithPhone(phone);
+            userCache.put(user);
+            userDTO = BeanUtil.copyProperties(user, UserDTO.class);
         }
 
-        // 7.保存用户信息到 redis中
-        // 7.1.随机生成token，作为登录令牌
-        String token = UUID.randomUUID().toString(true);
-        // 7.2.将User对象转为HashMap存储
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
-        Map<String, Object> userMap = BeanUtil.beanToMap(userDTO, new HashMap<>(),
-                CopyOptions.create()
-                        .setIgnoreNullValue(true)
-                        .setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString()));
-        // 7.3.存储
-        String tokenKey = LOGIN_USER_KEY + token;
-        stringRedisTemplate.opsForHash().putAll(tokenKey, userMap);
-        // 7.4.设置token有效期
-        stringRedisTemplate.expire(tokenKey, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        // 7.签发登录令牌，默认保存用户信息到 redis中
+        String token = tokenSessionStore.issue(userDTO);
 
         // 8.返回token
         return Result.ok(token);
     }
 
+    @Override
+    public Result logout(String token) {
+        if (StrUtil.isBlank(token)) {
+            return Result.fail("未登录！");
+        }
+        // 删除token及其在用户token索引中的记录
+        tokenSessionStore.remove(token);
+        return Result.ok();
+    }
+
+    @Override
+    public Result logoutAll() {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            return Result.fail("未登录！");
+        }
+        // 删除用户的全部token
+        tokenSessionStore.removeAll(user.getId());
+        return Result.ok();
+    }
+
     private User createUserWithPhone(String phone) {
         // 1.创建用户
         User user = new User();
@@ -131,7 +198,15 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         // 4.获取今天是本月的第几天
         int dayOfMonth = now.getDayOfMonth();
         // 5.写入Redis SETBIT key offset 1
-        stringRedisTemplate.opsForValue().setBit(key, dayOfMonth - 1, true);
+        // 同时写入当天所有用户的签到bitmap（偏移量为用户id），用于按天统计签到人数
+        String statKey = STAT_SIGN_KEY + now.format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.setBit(key, dayOfMonth - 1, true);
+            conn.setBit(statKey, userId, true);
+            conn.expire(statKey, TimeUnit.DAYS.toSeconds(STAT_TTL));
+            return null;
+        });
         return Result.ok();
     }
 
@@ -162,21 +237,63 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         if (num == null || num == 0) {
             return Result.ok(0);
         }
-        // 6.循环遍历
-        int count = 0;
-        while (true) {
-            // 6.1.让这个数字与1做与运算，得到数字的最后一个bit位
-            // 判断这个bit位是否为0
-            if ((num & 1) == 0) {
-                // 如果为0，说明未签到，结束
-                break;
-            }else {
-                // 如果不为0，说明已签到，计数器+1
-                count++;
-            }
-            // 把数字右移一位，抛弃最后一个bit位，继续下一个bit位
-            num >>>= 1;
+        // 6.从最后一位往前数连续的1，即取反后末尾0的个数
+        int count = Long.numberOfTrailingZeros(~num);
+        // 7.从本月1号起一直连续签到，继续向前统计之前的月份
+        if (count == dayOfMonth) {
+            count += signService.countStreak(userId, now.toLocalDate().withDayOfMonth(1).minusDays(1));
         }
         return Result.ok(count);
     }
+
+    @Override
+    public Result signStats(String month) {
+        // 1.获取当前登录用户
+        Long userId = UserHolder.getUser().getId();
+        // 2.解析月份，默认本月
+        LocalDate today = LocalDate.now();
+        YearMonth yearMonth;
+        try {
+            yearMonth = StrUtil.isBlank(month) ? YearMonth.from(today) : YearMonth.parse(month, SIGN_MONTH_FORMATTER);
+        } catch (DateTimeParseException e) {
+            return Result.fail("月份格式错误！");
+        }
+        if (yearMonth.isAfter(YearMonth.from(today))) {
+            return Result.fail("月份不能晚于本月！");
+        }
+        // 3.本月统计到今天，往月统计到月末
+        int lastDay = yearMonth.equals(YearMonth.from(today)) ? today.getDayOfMonth() : yearMonth.lengthOfMonth();
+        // 4.一次pipeline查询签到总数和整个bitmap
+        byte[] key = stringRedisTemplate.getStringSerializer()
+                .serialize(USER_SIGN_KEY + userId + ":" + yearMonth.format(SIGN_MONTH_FORMATTER));
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.stringCommands().bitCount(key);
+            connection.stringCommands().get(key);
+            return null;
+        }, RedisSerializer.byteArray());
+        Long total = (Long) results.get(0);
+        byte[] bytes = (byte[]) results.get(1);
+        int bits;
+        if (bytes == null && !yearMonth.equals(YearMonth.from(today))) {
+            // 4.1.往月的key不存在，可能已经归档到数据库
+            bits = signService.queryMonthBits(userId, Collections.singletonList(yearMonth)).get(yearMonth);
+            total = (long) Integer.bitCount(bits);
+        } else {
+            bits = SignBitmaps.mask(SignBitmaps.fromBytes(bytes), lastDay);
+        }
+        // 5.位运算统计
+        SignStatsDTO stats = new SignStatsDTO();
+        stats.setMonth(yearMonth.format(SIGN_MONTH_FORMATTER));
+        stats.setTotal(total == null ? 0L : total);
+        int currentStreak = SignBitmaps.streakEndingAt(bits, lastDay);
+        if (currentStreak == lastDay) {
+            // 5.1.从1号起一直连续签到，继续向前统计之前的月份
+            currentStreak += signService.countStreak(userId, yearMonth.atDay(1).minusDays(1));
+        }
+        stats.setCurrentStreak(currentStreak);
+        stats.setLongestStreak(SignBitmaps.longestStreak(bits));
+        stats.setBitmap(bits);
+        stats.setDays(SignBitmaps.days(bits));
+        return Result.ok(stats);
+    }
 }
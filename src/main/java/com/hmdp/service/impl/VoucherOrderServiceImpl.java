@@ -7,13 +7,18 @@ import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
-import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.IdWorker;
+import com.hmdp.utils.LockMetrics;
+import com.hmdp.utils.RedissonLockAdapter;
 import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.VirtualThreads;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.redis.connection.stream.*;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
@@ -27,7 +32,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -45,7 +50,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private ISeckillVoucherService seckillVoucherService;
 
     @Resource
-    private RedisIdWorker redisIdWorker;
+    private IdWorker idWorker;
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
@@ -53,6 +58,9 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private RedissonClient redissonClient;
 
+    @Resource
+    private LockMetrics lockMetrics;
+
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
 
     //初始化lua脚本
@@ -63,7 +71,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     }
 
     //线程池
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final ExecutorService SECKILL_ORDER_EXECUTOR = VirtualThreads.newSingleThreadExecutor();
 
     /**
      * 秒杀优惠卷：
@@ -89,7 +97,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         //获取用户
         Long userId = UserHolder.getUser().getId();
         //获取订单id
-        long orderId = redisIdWorker.nextId("order");
+        long orderId = idWorker.nextId("order");
         //1、执行lua脚本
         Long result = stringRedisTemplate.execute(
                 SECKILL_SCRIPT,
@@ -130,7 +138,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                     Map<Object, Object> values = record.getValue();
                     VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
                     // 3.创建订单
-                    handleVoucherOrder(voucherOrder);
+                    handleVoucherOrder(voucherOrder, false);
                     // 4.确认消息 XACK stream.orders g1 id
                     stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
                 } catch (Exception e) {
@@ -159,8 +167,8 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                     MapRecord<String, Object, Object> record = list.get(0);
                     Map<Object, Object> values = record.getValue();
                     VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    // 3.创建订单
-                    handleVoucherOrder(voucherOrder);
+                    // 3.创建订单，pending-list中的消息可能由其他节点重新投递，需要分布式锁
+                    handleVoucherOrder(voucherOrder, true);
                     // 4.确认消息 XACK stream.orders g1 id
                     stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
                 } catch (Exception e) {
@@ -175,36 +183,51 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         }
     }
     //处理订单
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
+    //消费者是单线程的，同一节点内不会并发处理订单；一人一单由lua脚本预判，最终由数据库的唯一索引 uk_user_id_voucher_id 保证
+    private void handleVoucherOrder(VoucherOrder voucherOrder, boolean fromPendingList) {
         //获取用户id
         Long userId = voucherOrder.getUserId();
-        //创建锁对象
-        RLock lock = redissonClient.getLock("lock:order:" + userId);
-        //获取锁
-        boolean isLock = lock.tryLock();
-        //判断获取锁是否成功
-        if (!isLock) {
-            //获取锁成功，返回错误或者重试
-            log.error("不能重复下单");
-            return;
+        //1、pending-list中的消息可能同时被其他节点处理，仍然使用分布式锁
+        ILock lock = null;
+        if (fromPendingList) {
+            RLock rLock = redissonClient.getLock("lock:order:" + userId);
+            lock = lockMetrics.instrument(rLock.getName(), new RedissonLockAdapter(rLock));
+            //不等待，由看门狗续期
+            boolean isLock;
+            try {
+                isLock = lock.tryLock(0, -1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (!isLock) {
+                log.error("不能重复下单");
+                return;
+            }
         }
         try {
 //      获取代理对象(事务) ---- 子线程无法从ThreadLocal中获取代理对象,需要在父线程中提前获取代理对象
 //      IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
             proxy.createVoucherOrder(voucherOrder);
+        } catch (DuplicateKeyException e) {
+            //2、唯一索引冲突，订单已经存在，事务回滚了库存的扣减
+            log.error("用户已经购买过一次了！");
         } finally {
-            lock.unlock();
+            if (lock != null) {
+                lock.unlock();
+            }
         }
     }
 
 
+
     @Transactional
     public void createVoucherOrder(VoucherOrder voucherOrder) {
         //5、一人一单
         Long userId = voucherOrder.getUserId();
 
         //5.1、查询订单
-        int count = this.query().eq("user_id", userId).eq("voucher_id", voucherOrder).count();
+        int count = this.query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
         //5.2、判断是否存在
         if (count > 0) {
             //用户已经购买过
@@ -215,7 +238,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         //6、扣减库存
         boolean success = seckillVoucherService.update()
                 .setSql("stock = stock - 1")
-                .eq("voucher_id", voucherOrder)
+                .eq("voucher_id", voucherOrder.getVoucherId())
                 //乐观锁CAS判断
                 .gt("stock", 0)
                 .update();
@@ -224,7 +247,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
             log.error("库存不足！");
             return;
         }
-        //新增订单
+        //新增订单，并发重复时由唯一索引 uk_user_id_voucher_id 拒绝，抛出DuplicateKeyException回滚事务
         this.save(voucherOrder);
         //7、返回订单id  ---  异步执行不需要返回
 //        return Result.ok(voucherOrder.getId());
@@ -253,7 +276,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         // 2.2.为0 ，有购买资格，把下单信息保存到阻塞队列
         VoucherOrder voucherOrder = new VoucherOrder();
         // 2.3.订单id
-        long orderId = redisIdWorker.nextId("order");
+        long orderId = idWorker.nextId("order");
         voucherOrder.setId(orderId);
         // 2.4.用户id
         voucherOrder.setUserId(userId);
@@ -445,7 +468,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         //7、订单不存在，则创建订单
         VoucherOrder voucherOrder = new VoucherOrder();
         //7.1、订单id
-        Long orderId = redisIdWorker.nextId("order");
+        Long orderId = idWorker.nextId("order");
         voucherOrder.setId(orderId);
         //7.2、用户id
         voucherOrder.setUserId(userId);
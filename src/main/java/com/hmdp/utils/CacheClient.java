@@ -1,22 +1,25 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
+import java.util.*;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
 import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_SHOP_TTL;
 
 /**
  * 缓存工具的封装
@@ -34,6 +37,12 @@ public class CacheClient {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private LocalFirstLockManager lockManager;
+
+    @Resource
+    private LockMetrics lockMetrics;
+
     public void set(String key, Object value, Long time, TimeUnit unit) {
         stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
     }
@@ -76,8 +85,64 @@ public class CacheClient {
         return r;
     }
 
+    /**
+     * 批量查询，解决缓存穿透：MGET批量读取缓存，只有未命中的id才批量查询数据库，并用pipeline回写缓存
+     *
+     * @param keyPrefix  key前缀
+     * @param ids        id集合
+     * @param type       数据类型
+     * @param dbFallback 批量查询数据库的函数
+     * @param idMapper   从数据中获取id的函数
+     * @return 按ids顺序排列的数据，不存在的数据会被忽略
+     */
+    public <R, ID> List<R> queryBatchWithPassThrough(String keyPrefix, List<ID> ids, Class<R> type,
+                                                      Function<List<ID>, List<R>> dbFallback,
+                                                      Function<R, ID> idMapper,
+                                                      Long time, TimeUnit unit) {
+        if (ids == null || ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        //1、批量查询缓存 MGET key1 key2 ...
+        List<String> keys = ids.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+        List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keys);
+        Map<ID, R> hits = new HashMap<>(ids.size());
+        List<ID> missIds = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            String json = jsons == null ? null : jsons.get(i);
+            if (StrUtil.isNotBlank(json)) {
+                //2、命中，直接反序列化
+                hits.put(ids.get(i), JSONUtil.toBean(json, type));
+            } else if (json == null) {
+                //3、未命中，记录下来批量查询数据库；命中空值说明数据库中不存在，直接忽略
+                missIds.add(ids.get(i));
+            }
+        }
+        if (!missIds.isEmpty()) {
+            //4、批量查询数据库
+            List<R> rs = dbFallback.apply(missIds);
+            for (R r : rs) {
+                hits.put(idMapper.apply(r), r);
+            }
+            //5、pipeline回写缓存，数据库中不存在的写入空值
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (ID id : missIds) {
+                    R r = hits.get(id);
+                    if (r == null) {
+                        conn.setEx(keyPrefix + id, TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL), "");
+                    } else {
+                        conn.setEx(keyPrefix + id, unit.toSeconds(time), JSONUtil.toJsonStr(r));
+                    }
+                }
+                return null;
+            });
+        }
+        //6、按照传入的id顺序返回
+        return ids.stream().map(hits::get).filter(Objects::nonNull).collect(Collectors.toCollection(ArrayList::new));
+    }
+
     //创建线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private static final ExecutorService CACHE_REBUILD_EXECUTOR = VirtualThreads.newFixedThreadPool(10);
 
     public <R, ID> R queryWithLogicalExpire(
             String keyPrefix, ID id, Class<R> type,
@@ -103,7 +168,8 @@ public class CacheClient {
         // 6.缓存重建
         // 6.1.获取互斥锁
         String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
+        ILock lock = lockMetrics.instrument(lockKey, new MutexLock(lockKey, stringRedisTemplate));
+        boolean isLock = lock.tryLock(10);
         // 6.2.判断是否获取锁成功
         if (isLock) {
             // 6.3.成功，开启独立线程，实现缓存重建
@@ -117,7 +183,7 @@ public class CacheClient {
                     throw new RuntimeException(e);
                 } finally {
                     // 释放锁
-                    unlock(lockKey);
+                    lock.unlock();
                 }
             });
         }
@@ -141,18 +207,26 @@ public class CacheClient {
             return null;
         }
         // 4.实现缓存重建
-        // 4.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
+        // 4.1.获取互斥锁，锁被占用时等待锁释放的通知，不再休眠轮询；同一节点的线程先在本地排队
+        ILock lock = lockManager.getLock("rebuild:" + key);
         R r = null;
         try {
-            boolean isLock = tryLock(lockKey);
+            boolean isLock = lock.tryLock(LOCK_SHOP_TTL, LOCK_SHOP_TTL, TimeUnit.SECONDS);
             // 4.2.判断是否获取成功
             if (!isLock) {
-                // 4.3.获取锁失败，休眠并重试
-                Thread.sleep(50);
+                // 4.3.等待超时，重新查询
                 return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
             }
-            // 4.4.获取锁成功，根据id查询数据库
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            // 4.4.获取锁成功，再次查询缓存，等待期间其他线程可能已经完成重建
+            shopJson = stringRedisTemplate.opsForValue().get(key);
+            if (shopJson != null) {
+                return StrUtil.isNotBlank(shopJson) ? JSONUtil.toBean(shopJson, type) : null;
+            }
+            // 4.5.根据id查询数据库
             r = dbFallback.apply(id);
             // 5.不存在，返回错误
             if (r == null) {
@@ -163,27 +237,14 @@ public class CacheClient {
             }
             // 6.存在，写入redis
             this.set(key, r, time, unit);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }finally {
-            // 7.释放锁
-            unlock(lockKey);
+        } finally {
+            // 7.释放锁，唤醒等待的线程
+            lock.unlock();
         }
         // 8.返回
         return r;
     }
 
-    //尝试获取互斥锁 --- redis 中 setnx操作
-    private boolean tryLock(String key) {
-        Boolean res = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        //**** 防止自动拆箱出现空指针 *****
-        return BooleanUtil.isTrue(res);
-    }
-
-    //释放锁
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
-    }
 
 
 }
@@ -0,0 +1,64 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 获取客户端IP，用于按IP限流
+ * X-Forwarded-For 可以由客户端任意伪造，只有直接连接的是配置的可信代理时才读取，
+ * 并且从右往左取第一个不是可信代理的地址（左侧的部分同样可能是客户端伪造的）
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.utils
+ * @Author: ajie
+ */
+@Component
+public class ClientIpResolver {
+
+    private static final String FORWARDED_FOR_HEADER = "X-Forwarded-For";
+
+    /**
+     * 可信代理的IP，多个以','隔开，例如 nginx 所在机器的地址
+     */
+    @Value("${hmdp.rate-limit.trusted-proxies:}")
+    private String trustedProxiesConfig;
+
+    private Set<String> trustedProxies;
+
+    @PostConstruct
+    private void init() {
+        trustedProxies = new HashSet<>(StrUtil.split(trustedProxiesConfig, ',', true, true));
+    }
+
+    public String resolve(HttpServletRequest request) {
+        String remoteAddr = request.getRemoteAddr();
+        // 1.不是可信代理转发的请求，直接使用连接的地址
+        if (!trustedProxies.contains(remoteAddr)) {
+            return remoteAddr;
+        }
+        // 2.从右往左跳过可信代理
+        String forwardedFor = request.getHeader(FORWARDED_FOR_HEADER);
+        if (StrUtil.isBlank(forwardedFor)) {
+            return remoteAddr;
+        }
+        List<String> hops = Arrays.asList(forwardedFor.split(","));
+        for (int i = hops.size() - 1; i >= 0; i--) {
+            String hop = hops.get(i).trim();
+            if (hop.isEmpty()) {
+                continue;
+            }
+            if (!trustedProxies.contains(hop)) {
+                return hop;
+            }
+        }
+        return remoteAddr;
+    }
+}
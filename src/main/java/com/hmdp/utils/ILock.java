@@ -1,5 +1,7 @@
 package com.hmdp.utils;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * @BelongsProject: ajie_comment
  * @BelongsPackage: com.hmdp.utils
@@ -17,6 +19,21 @@ public interface ILock {
      */
     boolean tryLock(long timeoutSec);
 
+    /**
+     * 尝试获取锁，获取失败时在waitTime内等待锁释放
+     *
+     * @param waitTime  最长等待时间，小于等于0时不等待
+     * @param leaseTime 锁持有的超时时间，小于等于0时由看门狗自动续期，直到释放锁
+     * @param unit      时间单位
+     * @return true代表获取锁成功; false代表等待超时
+     */
+    boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * 获取锁，一直等待直到获取成功，由看门狗自动续期
+     */
+    void lock();
+
     /**
      * 释放锁
      */
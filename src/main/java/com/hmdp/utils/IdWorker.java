@@ -0,0 +1,20 @@
+package com.hmdp.utils;
+
+/**
+ * 全局唯一ID生成器
+ * ID的高32位为相对 2022-01-01 的秒数，低32位保证同一秒内唯一，不同实现生成的ID可以按时间排序
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.utils
+ * @Author: ajie
+ */
+public interface IdWorker {
+
+    /**
+     * 生成下一个ID
+     *
+     * @param keyPrefix 业务前缀
+     * @return 全局唯一ID
+     */
+    Long nextId(String keyPrefix);
+}
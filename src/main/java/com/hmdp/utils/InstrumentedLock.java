@@ -0,0 +1,89 @@
+package com.hmdp.utils;
+
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ILock的装饰器，把获取锁的耗时、结果和持有时间记录到LockMetrics
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.utils
+ * @Author: ajie
+ */
+public class InstrumentedLock implements ILock {
+
+    private final String name;
+    private final ILock delegate;
+    private final LockMetrics metrics;
+
+    /**
+     * 获取成功的时间，重入时按栈的顺序对应释放
+     */
+    private final Deque<Long> acquiredAt = new ConcurrentLinkedDeque<>();
+
+    public InstrumentedLock(String name, ILock delegate, LockMetrics metrics) {
+        this.name = name;
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean tryLock(long timeoutSec) {
+        LockMetrics.pollWaited();
+        long begin = System.nanoTime();
+        boolean success = false;
+        try {
+            success = delegate.tryLock(timeoutSec);
+        } finally {
+            afterAcquire(begin, success);
+        }
+        return success;
+    }
+
+    @Override
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException {
+        LockMetrics.pollWaited();
+        long begin = System.nanoTime();
+        boolean success = false;
+        try {
+            success = delegate.tryLock(waitTime, leaseTime, unit);
+        } finally {
+            afterAcquire(begin, success);
+        }
+        return success;
+    }
+
+    @Override
+    public void lock() {
+        LockMetrics.pollWaited();
+        long begin = System.nanoTime();
+        boolean success = false;
+        try {
+            delegate.lock();
+            success = true;
+        } finally {
+            afterAcquire(begin, success);
+        }
+    }
+
+    @Override
+    public void unlock() {
+        Long begin = acquiredAt.pollFirst();
+        try {
+            delegate.unlock();
+        } finally {
+            if (begin != null) {
+                metrics.recordHold(name, System.nanoTime() - begin);
+            }
+        }
+    }
+
+    private void afterAcquire(long begin, boolean success) {
+        long now = System.nanoTime();
+        metrics.recordAcquire(name, now - begin, success, LockMetrics.pollWaited());
+        if (success) {
+            acquiredAt.push(now);
+        }
+    }
+}
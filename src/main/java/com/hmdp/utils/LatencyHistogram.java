@@ -0,0 +1,92 @@
+package com.hmdp.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 固定分桶的耗时直方图，记录时只做LongAdder累加，分位数取所在桶的上界
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.utils
+ * @Author: ajie
+ */
+public class LatencyHistogram {
+
+    /**
+     * 桶的上界（毫秒），最后一个桶记录超过5秒的
+     */
+    private static final long[] BOUNDS_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_MILLIS.length + 1];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int i = 0;
+        while (i < BOUNDS_MILLIS.length && millis >= BOUNDS_MILLIS[i]) {
+            i++;
+        }
+        buckets[i].increment();
+        count.increment();
+        sumNanos.add(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+            // 重试
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * 统计数据：次数、平均值、最大值、分位数（毫秒）和每个桶的次数
+     */
+    public Map<String, Object> snapshot() {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("count", total);
+        data.put("avgMs", total == 0 ? 0 : sumNanos.sum() / total / 1_000_000.0);
+        data.put("maxMs", maxNanos.get() / 1_000_000.0);
+        data.put("p50Ms", percentile(counts, total, 0.5));
+        data.put("p90Ms", percentile(counts, total, 0.9));
+        data.put("p99Ms", percentile(counts, total, 0.99));
+        Map<String, Long> bucketData = new LinkedHashMap<>();
+        for (int i = 0; i < counts.length; i++) {
+            bucketData.put(i < BOUNDS_MILLIS.length ? "<" + BOUNDS_MILLIS[i] + "ms" : ">=" + BOUNDS_MILLIS[i - 1] + "ms", counts[i]);
+        }
+        data.put("buckets", bucketData);
+        return data;
+    }
+
+    private long percentile(long[] counts, long total, double p) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * p);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i < BOUNDS_MILLIS.length ? BOUNDS_MILLIS[i] : TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+            }
+        }
+        return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+    }
+}
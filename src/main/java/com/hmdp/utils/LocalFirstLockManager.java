@@ -0,0 +1,238 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 先本地、后redis的锁
+ * 同一节点内竞争同一把锁的线程先在本地的公平锁上排队，只有本地的胜出者去获取redis锁；
+ * redis锁由节点持有，释放时如果本地还有等待者，直接交给下一个等待者，不释放redis锁，
+ * 这样redis锁的竞争只与节点数有关，与线程数无关
+ * redis锁始终由看门狗续期，leaseTime参数不生效；看门狗发现redis锁已经失效时不再交接，下一个线程重新获取redis锁
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.utils
+ * @Author: ajie
+ */
+@Slf4j
+@Component
+public class LocalFirstLockManager {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private LockWaitNotifier lockWaitNotifier;
+
+    @Resource
+    private LockMetrics lockMetrics;
+
+    /**
+     * 锁的名称 -> 本地锁，没有线程使用并且没有持有redis锁时移除
+     */
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public ILock getLock(String name) {
+        return lockMetrics.instrument(name, new LocalFirstLock(name));
+    }
+
+    private Entry retain(String name) {
+        return entries.compute(name, (k, entry) -> {
+            if (entry == null) {
+                entry = new Entry(new SimpleRedisLock(name, stringRedisTemplate, lockWaitNotifier, true));
+            }
+            entry.refs++;
+            return entry;
+        });
+    }
+
+    private void release(String name, Entry e) {
+        boolean[] idle = new boolean[1];
+        entries.computeIfPresent(name, (k, entry) -> {
+            if (entry != e) {
+                return entry;
+            }
+            if (--entry.refs > 0) {
+                return entry;
+            }
+            idle[0] = entry.redisHeld;
+            return entry.redisHeld ? entry : null;
+        });
+        // 最后一个离开的线程发现redis锁仍被持有（交接时等待者超时放弃了），负责释放
+        if (idle[0] && e.local.tryLock()) {
+            try {
+                releaseRedisIfIdle(e);
+            } catch (IllegalMonitorStateException ex) {
+                log.warn("锁 {} 释放时redis锁已经失效", name, ex);
+            } finally {
+                e.local.unlock();
+            }
+            entries.computeIfPresent(name, (k, entry) ->
+                    entry == e && entry.refs <= 0 && !entry.redisHeld ? null : entry);
+        }
+    }
+
+    /**
+     * 持有local时调用：没有其他线程在等待时释放redis锁；redis锁已经失效时不交接，直接丢弃
+     */
+    private static void releaseRedisIfIdle(Entry e) {
+        if (e.redisHeld && e.leaseLost) {
+            e.redisHeld = false;
+            return;
+        }
+        if (e.redisHeld && !e.local.hasQueuedThreads()) {
+            e.redisHeld = false;
+            e.redisLock.unlock();
+        }
+    }
+
+    private static class Entry {
+        /**
+         * 公平锁，先到先得
+         */
+        private final ReentrantLock local = new ReentrantLock(true);
+        private final SimpleRedisLock redisLock;
+        /**
+         * 是否已经由本节点持有redis锁，只在持有local时读写
+         */
+        private volatile boolean redisHeld;
+        /**
+         * 看门狗发现redis锁已经失效，由看门狗线程写入，持有local时读取和重置
+         */
+        private volatile boolean leaseLost;
+        /**
+         * 正在使用的线程数，只在compute中修改
+         */
+        private int refs;
+
+        private Entry(SimpleRedisLock redisLock) {
+            this.redisLock = redisLock;
+            redisLock.setLeaseLostListener(() -> leaseLost = true);
+        }
+    }
+
+    private class LocalFirstLock implements ILock {
+
+        private final String name;
+
+        private LocalFirstLock(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean tryLock(long timeoutSec) {
+            try {
+                return tryLock(0, timeoutSec, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        @Override
+        public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException {
+            long waitMillis = unit.toMillis(waitTime);
+            return acquire(waitMillis < 0 ? 0 : waitMillis);
+        }
+
+        @Override
+        public void lock() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    acquire(-1);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * @param waitMillis 最长等待时间，-1表示一直等待
+         */
+        private boolean acquire(long waitMillis) throws InterruptedException {
+            long deadline = waitMillis < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + waitMillis;
+            Entry e = retain(name);
+            boolean success = false;
+            try {
+                // 1.本地排队
+                if (e.local.isLocked() && !e.local.isHeldByCurrentThread()) {
+                    LockMetrics.markWaited();
+                }
+                boolean isLock = waitMillis < 0 ? lockInterruptibly(e) : e.local.tryLock(waitMillis, TimeUnit.MILLISECONDS);
+                if (!isLock) {
+                    return false;
+                }
+                try {
+                    // 2.本节点已经持有redis锁（重入，或者上一个持有者交接过来），不需要再访问redis
+                    if (e.redisHeld && e.leaseLost && e.local.getHoldCount() == 1) {
+                        // 交接过来的redis锁已经失效，重新获取
+                        e.redisHeld = false;
+                    }
+                    if (e.redisHeld) {
+                        success = true;
+                        return true;
+                    }
+                    // 3.本地胜出，获取redis锁
+                    e.leaseLost = false;
+                    long remaining = waitMillis < 0 ? -1 : Math.max(0, deadline - System.currentTimeMillis());
+                    if (remaining < 0) {
+                        e.redisLock.lock();
+                    } else if (!e.redisLock.tryLock(remaining, -1, TimeUnit.MILLISECONDS)) {
+                        return false;
+                    }
+                    e.redisHeld = true;
+                    success = true;
+                    return true;
+                } finally {
+                    if (!success) {
+                        releaseRedisIfIdle(e);
+                        e.local.unlock();
+                    }
+                }
+            } finally {
+                if (!success) {
+                    release(name, e);
+                }
+            }
+        }
+
+        private boolean lockInterruptibly(Entry e) throws InterruptedException {
+            e.local.lockInterruptibly();
+            return true;
+        }
+
+        @Override
+        public void unlock() {
+            Entry e = entries.get(name);
+            if (e == null || !e.local.isHeldByCurrentThread()) {
+                // 与ReentrantLock、SimpleRedisLock一致，释放不是自己持有的锁时抛出异常
+                throw new IllegalMonitorStateException("锁 " + name + " 不是由当前线程持有");
+            }
+            boolean lost = e.local.getHoldCount() == 1 && e.redisHeld && e.leaseLost;
+            try {
+                // 最后一层重入，没有本地等待者时才释放redis锁，否则交给下一个等待者
+                if (e.local.getHoldCount() == 1) {
+                    releaseRedisIfIdle(e);
+                }
+            } finally {
+                e.local.unlock();
+                release(name, e);
+            }
+            if (lost) {
+                // 与SimpleRedisLock一致，让调用者知道临界区可能已经不受保护
+                throw new IllegalMonitorStateException("锁 " + name + " 的redis锁已经失效");
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * 锁的统计：按锁的分组（名称中的数字id替换为*，例如 order:*）记录获取耗时、持有时间、获取失败次数，
+ * 并按具体的锁名称记录竞争次数（获取时需要等待或者获取失败），用于找出热点锁
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.utils
+ * @Author: ajie
+ */
+@Component
+public class LockMetrics {
+
+    private static final Pattern ID_PATTERN = Pattern.compile("(?<=:)\\d+(?=:|$)");
+
+    /**
+     * 记录竞争次数的锁名称上限，超过后淘汰最久没有竞争的锁，避免内存无限增长
+     */
+    private static final int MAX_TRACKED_KEYS = 10000;
+
+    /**
+     * 当前线程本次获取锁是否等待过：由锁的实现在需要等待时标记，InstrumentedLock在获取前重置、获取后读取
+     */
+    private static final ThreadLocal<Boolean> WAITED = new ThreadLocal<>();
+
+    private final ConcurrentHashMap<String, GroupStats> groups = new ConcurrentHashMap<>();
+
+    /**
+     * 锁名称 -> 竞争次数，按访问顺序排列，只在等待或者失败时访问
+     */
+    private final Map<String, LongAdder> contention = Collections.synchronizedMap(
+            new LinkedHashMap<String, LongAdder>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, LongAdder> eldest) {
+                    return size() > MAX_TRACKED_KEYS;
+                }
+            });
+
+    /**
+     * 标记当前线程获取锁时需要等待（锁被其他线程持有）
+     */
+    public static void markWaited() {
+        WAITED.set(Boolean.TRUE);
+    }
+
+    /**
+     * 读取并清除当前线程的等待标记
+     */
+    static boolean pollWaited() {
+        boolean waited = WAITED.get() != null;
+        WAITED.remove();
+        return waited;
+    }
+
+    /**
+     * 包装锁，记录获取和持有的耗时
+     */
+    public ILock instrument(String name, ILock lock) {
+        return new InstrumentedLock(name, lock, this);
+    }
+
+    /**
+     * 记录一次获取锁
+     *
+     * @param name    锁的名称
+     * @param nanos   获取（或者等待到失败）的耗时
+     * @param success 是否获取成功
+     * @param waited  是否因为锁被其他线程持有而等待过
+     */
+    public void recordAcquire(String name, long nanos, boolean success, boolean waited) {
+        GroupStats stats = group(name);
+        stats.acquire.record(nanos);
+        if (success) {
+            stats.acquired.increment();
+        } else {
+            stats.failed.increment();
+        }
+        // 只有真正等待过或者获取失败才算竞争，获取本身慢（例如redis延迟）不算
+        if (!success || waited) {
+            contention.computeIfAbsent(name, k -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * 记录一次持有锁的时间
+     */
+    public void recordHold(String name, long nanos) {
+        group(name).hold.record(nanos);
+    }
+
+    /**
+     * 统计数据
+     *
+     * @param top 返回竞争最多的锁的数量
+     */
+    public Map<String, Object> snapshot(int top) {
+        Map<String, Object> groupData = new TreeMap<>();
+        groups.forEach((group, stats) -> {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("acquired", stats.acquired.sum());
+            data.put("failed", stats.failed.sum());
+            data.put("acquire", stats.acquire.snapshot());
+            data.put("hold", stats.hold.snapshot());
+            groupData.put(group, data);
+        });
+        List<Map.Entry<String, Long>> contended = new ArrayList<>();
+        contention.forEach((name, count) -> contended.add(new AbstractMap.SimpleEntry<>(name, count.sum())));
+        contended.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        Map<String, Long> topData = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : contended.subList(0, Math.max(0, Math.min(top, contended.size())))) {
+            topData.put(entry.getKey(), entry.getValue());
+        }
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("groups", groupData);
+        data.put("topContended", topData);
+        return data;
+    }
+
+    private GroupStats group(String name) {
+        return groups.computeIfAbsent(ID_PATTERN.matcher(name).replaceAll("*"), k -> new GroupStats());
+    }
+
+    private static class GroupStats {
+        private final LatencyHistogram acquire = new LatencyHistogram();
+        private final LatencyHistogram hold = new LatencyHistogram();
+        private final LongAdder acquired = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+    }
+}
@@ -0,0 +1,101 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import static com.hmdp.utils.RedisConstants.LOCK_CHANNEL_PREFIX;
+
+/**
+ * 锁释放的通知
+ * 释放锁时向 lock:channel:{name} 发布消息，本节点订阅 lock:channel:*，收到消息后唤醒等待这把锁的一个线程，
+ * 等待者不需要轮询redis；同一节点内按照等待的先后顺序唤醒
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.utils
+ * @Author: ajie
+ */
+@Slf4j
+@Component
+public class LockWaitNotifier {
+
+    @Resource
+    private RedisConnectionFactory redisConnectionFactory;
+
+    private RedisMessageListenerContainer container;
+
+    /**
+     * 频道 -> 等待者
+     */
+    private final ConcurrentHashMap<String, Waiters> waiters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory);
+        container.addMessageListener(this::onMessage, new PatternTopic(LOCK_CHANNEL_PREFIX + "*"));
+        container.afterPropertiesSet();
+        container.start();
+    }
+
+    @PreDestroy
+    private void destroy() throws Exception {
+        container.destroy();
+    }
+
+    /**
+     * 开始等待，必须与 {@link #unsubscribe(String, Waiters)} 成对调用
+     */
+    public Waiters subscribe(String channel) {
+        return waiters.compute(channel, (k, w) -> {
+            if (w == null) {
+                w = new Waiters();
+            }
+            w.count++;
+            return w;
+        });
+    }
+
+    public void unsubscribe(String channel, Waiters w) {
+        waiters.computeIfPresent(channel, (k, current) -> {
+            if (current != w) {
+                return current;
+            }
+            return --current.count <= 0 ? null : current;
+        });
+    }
+
+    private void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        Waiters w = waiters.get(channel);
+        if (w != null) {
+            // 锁已经释放，唤醒一个等待者去竞争
+            w.semaphore.release();
+        }
+    }
+
+    public static class Waiters {
+        /**
+         * 公平的信号量，先等待的线程先被唤醒
+         */
+        private final Semaphore semaphore = new Semaphore(0, true);
+        /**
+         * 等待者的数量，只在compute中修改
+         */
+        private int count;
+
+        public Semaphore getSemaphore() {
+            return semaphore;
+        }
+    }
+}
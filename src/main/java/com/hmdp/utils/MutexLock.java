@@ -0,0 +1,52 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.BooleanUtil;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于 SETNX 的互斥锁，不区分持有者，可以由其他线程释放（例如在线程池中重建缓存之后释放）
+ * 只支持不等待地获取
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.utils
+ * @Author: ajie
+ */
+public class MutexLock implements ILock {
+
+    private final String key;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public MutexLock(String key, StringRedisTemplate stringRedisTemplate) {
+        this.key = key;
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    //尝试获取互斥锁 --- redis 中 setnx操作
+    @Override
+    public boolean tryLock(long timeoutSec) {
+        Boolean res = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", timeoutSec, TimeUnit.SECONDS);
+        //**** 防止自动拆箱出现空指针 *****
+        return BooleanUtil.isTrue(res);
+    }
+
+    @Override
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) {
+        if (waitTime > 0 || leaseTime <= 0) {
+            throw new UnsupportedOperationException("MutexLock只支持不等待、指定有效期地获取");
+        }
+        return tryLock(Math.max(1, unit.toSeconds(leaseTime)));
+    }
+
+    @Override
+    public void lock() {
+        throw new UnsupportedOperationException("MutexLock只支持不等待、指定有效期地获取");
+    }
+
+    //释放锁
+    @Override
+    public void unlock() {
+        stringRedisTemplate.delete(key);
+    }
+}
@@ -3,20 +3,59 @@ package com.hmdp.utils;
 public class RedisConstants {
     public static final String LOGIN_CODE_KEY = "login:code:";
     public static final Long LOGIN_CODE_TTL = 2L;
+    public static final String RATE_LIMIT_KEY = "limit:";
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 36000L;
+    public static final Long LOGIN_USER_LOCAL_TTL = 60L;
+    public static final String LOGIN_USER_TOKENS_KEY = "login:user:tokens:";
+    public static final Long LOGIN_SWEEP_INTERVAL = 60L;
+    public static final String LOGIN_DENYLIST_KEY = "login:denylist";
+    public static final Long LOGIN_DENYLIST_SYNC_INTERVAL = 30L;
 
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
+    public static final Long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final String CACHE_USER_PHONE_KEY = "cache:user:phone:";
+
+    public static final Long CACHE_BLOG_LIKES_TTL = 10L;
+    public static final String CACHE_BLOG_LIKES_KEY = "cache:blog:likes:";
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String LOCK_CHANNEL_PREFIX = "lock:channel:";
+    public static final Long LOCK_WATCHDOG_TIMEOUT = 30L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_STREAM_KEY = "stream.feed";
+    public static final String FEED_FANOUT_PROGRESS_KEY = "feed:fanout:";
+    public static final Long FEED_FANOUT_PROGRESS_TTL = 1L;
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_GEO_RESULT_KEY = "shop:geo:result:";
+    public static final Long SHOP_GEO_RESULT_TTL = 60L;
+    public static final String SHOP_GEO_EMPTY_KEY = "shop:geo:empty:";
+    public static final Long SHOP_GEO_EMPTY_TTL = 10L;
+    public static final Long SHOP_GEO_RECONCILE_INTERVAL = 30L;
     public static final String USER_SIGN_KEY = "sign:";
+    public static final Long USER_SIGN_ARCHIVED_TTL = 1L;
+    public static final Long SIGN_ARCHIVE_INTERVAL = 6L;
+
+    public static final String ID_WORKER_KEY = "id:worker:";
+    public static final Long ID_WORKER_TTL = 60L;
+    public static final Long ID_WORKER_HEARTBEAT_INTERVAL = 20L;
+
+    public static final String STAT_UV_KEY = "stat:uv:";
+    public static final String STAT_SIGN_KEY = "stat:sign:";
+    public static final String STAT_SIGN_COHORT_KEY = "stat:sign:cohort:";
+    public static final Long STAT_TTL = 90L;
+    public static final Long STAT_SIGN_COHORT_TTL = 60L;
+    public static final Long STAT_UV_FLUSH_INTERVAL = 5L;
 }
@@ -1,15 +1,24 @@
 package com.hmdp.utils;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
+import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * redis自增实现全局唯一ID
+ * 号段模式下（hmdp.id.segment-size > 1）每次 INCRBY 预占一段序列号，在本地通过AtomicLong发放，
+ * 剩余数量低于号段的20%时异步预取下一段，大部分ID的生成不需要访问redis
  *
  * @BelongsProject: ajie_comment
  * @BelongsPackage: com.hmdp.utils
@@ -18,7 +27,7 @@ import java.time.format.DateTimeFormatter;
  * @Description: TODO
  */
 @Component
-public class RedisIdWorker {
+public class RedisIdWorker implements IdWorker {
     /**
      * 开始时间戳
      */
@@ -28,24 +37,159 @@ public class RedisIdWorker {
      */
     private static final long COUNT_BITS = 32L;
 
+    private static final long SECONDS_PER_DAY = TimeUnit.DAYS.toSeconds(1);
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    private static final TimeZone ZONE = TimeZone.getDefault();
+
+    //预取号段的线程池
+    private static final ExecutorService SEGMENT_PREFETCH_EXECUTOR = Executors.newSingleThreadExecutor();
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * 号段大小，小于等于1时每个ID都INCR一次
+     */
+    @Value("${hmdp.id.segment-size:1}")
+    private int segmentSize;
+
+    /**
+     * 缓存的日期，只在跨天时重新格式化
+     */
+    private volatile DayKey dayKey = new DayKey(Long.MIN_VALUE, null);
+
+    /**
+     * 业务前缀 -> 号段
+     */
+    private final ConcurrentHashMap<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    @Override
     public Long nextId(String keyPrefix) {
         //1、生成时间戳
-        LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
+        long nowSecond = currentSecond();
         long timestamp = nowSecond - BEGIN_TIMESTAMP;
 
-        //2、生成序列号
-        //2.1、获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        //2.2、实现自增长
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        //2、生成序列号，序列号按天重置
+        long day = Math.floorDiv(nowSecond, SECONDS_PER_DAY);
+        long count = segmentSize > 1
+                ? nextCountFromSegment(keyPrefix, day)
+                : stringRedisTemplate.opsForValue().increment(countKey(keyPrefix, day));
 
         //3、拼接并返回
         return timestamp << COUNT_BITS | count;
     }
+
+    /**
+     * 当前时间的秒数，与 LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) 一致，即本地时间当作UTC
+     */
+    private static long currentSecond() {
+        long millis = System.currentTimeMillis();
+        return Math.floorDiv(millis + ZONE.getOffset(millis), 1000L);
+    }
+
+    /**
+     * 计数器的key：icr:{keyPrefix}:yyyy:MM:dd
+     */
+    private String countKey(String keyPrefix, long day) {
+        DayKey cached = dayKey;
+        if (cached.day != day) {
+            cached = new DayKey(day, LocalDate.ofEpochDay(day).format(DATE_FORMATTER));
+            dayKey = cached;
+        }
+        return "icr:" + keyPrefix + ":" + cached.date;
+    }
+
+    /**
+     * 从本地号段中获取序列号
+     */
+    private long nextCountFromSegment(String keyPrefix, long day) {
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, k -> new SegmentBuffer());
+        while (true) {
+            Segment segment = buffer.current;
+            if (segment != null && segment.day == day) {
+                long count = segment.cursor.getAndIncrement();
+                if (count <= segment.max) {
+                    // 1.剩余数量低于水位，异步预取下一段
+                    if (segment.max - count < segmentSize / 5) {
+                        prefetch(buffer, keyPrefix, day);
+                    }
+                    return count;
+                }
+            }
+            // 2.号段用完或者跨天，切换到下一段
+            synchronized (buffer) {
+                if (buffer.current != segment) {
+                    // 其他线程已经切换过了
+                    continue;
+                }
+                Segment next = buffer.next;
+                buffer.next = null;
+                if (next == null || next.day != day || (segment != null && next.cursor.get() <= segment.max)) {
+                    // 预取的号段还没有返回，或者预取的号段比当前号段小（预取与同步获取并发时，预取的先分配），同步获取
+                    next = allocate(keyPrefix, day);
+                }
+                buffer.current = next;
+            }
+        }
+    }
+
+    private void prefetch(SegmentBuffer buffer, String keyPrefix, long day) {
+        if (buffer.next != null || !buffer.loading.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            SEGMENT_PREFETCH_EXECUTOR.execute(() -> {
+                try {
+                    buffer.next = allocate(keyPrefix, day);
+                } finally {
+                    buffer.loading.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            buffer.loading.set(false);
+        }
+    }
+
+    /**
+     * INCRBY 预占 [end - segmentSize + 1, end] 这一段序列号
+     */
+    private Segment allocate(String keyPrefix, long day) {
+        Long end = stringRedisTemplate.opsForValue().increment(countKey(keyPrefix, day), segmentSize);
+        if (end == null) {
+            throw new IllegalStateException("获取ID号段失败");
+        }
+        return new Segment(day, end - segmentSize + 1, end);
+    }
+
+    private static class DayKey {
+        private final long day;
+        private final String date;
+
+        private DayKey(long day, String date) {
+            this.day = day;
+            this.date = date;
+        }
+    }
+
+    private static class Segment {
+        private final long day;
+        private final AtomicLong cursor;
+        private final long max;
+
+        private Segment(long day, long min, long max) {
+            this.day = day;
+            this.cursor = new AtomicLong(min);
+            this.max = max;
+        }
+    }
+
+    private static class SegmentBuffer {
+        private volatile Segment current;
+        private volatile Segment next;
+        private final AtomicBoolean loading = new AtomicBoolean();
+    }
     /*
     public static void main(String[] args) {
         LocalDateTime time = LocalDateTime.of(2022, 1, 1, 0, 0, 0);
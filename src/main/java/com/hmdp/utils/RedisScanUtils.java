@@ -0,0 +1,52 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 使用SCAN分批遍历key，代替会阻塞redis的KEYS
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.utils
+ * @Author: ajie
+ */
+public class RedisScanUtils {
+
+    private RedisScanUtils() {
+    }
+
+    /**
+     * 分批遍历匹配的key，每批最多 batchSize 个
+     *
+     * @param pattern      匹配的key，例如 sign:*
+     * @param batchSize    每批的key数量，同时作为SCAN的COUNT
+     * @param batchHandler 处理一批key
+     */
+    public static void scan(StringRedisTemplate stringRedisTemplate, String pattern, int batchSize,
+                            Consumer<List<String>> batchHandler) {
+        ScanOptions options = ScanOptions.scanOptions().match(pattern).count(batchSize).build();
+        stringRedisTemplate.execute((RedisCallback<Void>) connection -> {
+            try (Cursor<byte[]> cursor = connection.scan(options)) {
+                List<String> batch = new ArrayList<>(batchSize);
+                while (cursor.hasNext()) {
+                    batch.add(new String(cursor.next(), StandardCharsets.UTF_8));
+                    if (batch.size() >= batchSize) {
+                        batchHandler.accept(batch);
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    batchHandler.accept(batch);
+                }
+            }
+            return null;
+        });
+    }
+}
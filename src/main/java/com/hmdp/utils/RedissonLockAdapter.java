@@ -0,0 +1,49 @@
+package com.hmdp.utils;
+
+import org.redisson.api.RLock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把Redisson的RLock适配为ILock，便于用 {@link LockMetrics#instrument(String, ILock)} 统一记录锁的耗时
+ * Redisson内部的等待不会标记LockMetrics的等待标记，竞争次数只包含获取失败
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.utils
+ * @Author: ajie
+ */
+public class RedissonLockAdapter implements ILock {
+
+    private final RLock lock;
+
+    public RedissonLockAdapter(RLock lock) {
+        this.lock = lock;
+    }
+
+    @Override
+    public boolean tryLock(long timeoutSec) {
+        try {
+            // 不等待，有效期到期后自动释放
+            return lock.tryLock(0, timeoutSec, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException {
+        // leaseTime为-1时由Redisson的看门狗续期
+        return lock.tryLock(Math.max(0, waitTime), leaseTime > 0 ? leaseTime : -1, unit);
+    }
+
+    @Override
+    public void lock() {
+        lock.lock();
+    }
+
+    @Override
+    public void unlock() {
+        lock.unlock();
+    }
+}
@@ -1,25 +1,21 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+public class RefreshTokenInterceptor implements AsyncHandlerInterceptor {
 
-public class RefreshTokenInterceptor implements HandlerInterceptor {
+    private TokenSessionStore tokenSessionStore;
 
-    private StringRedisTemplate stringRedisTemplate;
+    private UvRecorder uvRecorder;
 
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    public RefreshTokenInterceptor(TokenSessionStore tokenSessionStore, UvRecorder uvRecorder) {
+        this.tokenSessionStore = tokenSessionStore;
+        this.uvRecorder = uvRecorder;
     }
 
     @Override
@@ -29,23 +25,26 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         if (StrUtil.isBlank(token)) {
             return true;
         }
-        // 2.基于TOKEN获取redis中的用户
-        String key  = LOGIN_USER_KEY + token;
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(key);
+        // 2.基于TOKEN获取用户，本地缓存未命中时查询redis并刷新token有效期
+        UserDTO userDTO = tokenSessionStore.get(token);
         // 3.判断用户是否存在
-        if (userMap.isEmpty()) {
+        if (userDTO == null) {
             return true;
         }
-        // 5.将查询到的hash数据转为UserDTO
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
-        // 6.存在，保存用户信息到 ThreadLocal
+        // 4.存在，保存用户信息到 ThreadLocal
         UserHolder.saveUser(userDTO);
-        // 7.刷新token有效期
-        stringRedisTemplate.expire(key, LOGIN_USER_TTL, TimeUnit.MINUTES);
-        // 8.放行
+        // 5.记录日活，本地暂存后批量写入
+        uvRecorder.record(userDTO.getId());
+        // 6.放行
         return true;
     }
 
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 异步请求不会在当前线程执行afterCompletion，需要在这里移除用户
+        UserHolder.removeUser();
+    }
+
     @Override
     public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
         // 移除用户
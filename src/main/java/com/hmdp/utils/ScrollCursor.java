@@ -0,0 +1,80 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.util.NumberUtil;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 滚动分页的游标，记录上一页最后一条数据的分数（时间戳）和id，按 (分数, id) 倒序排列
+ * 对外以不透明的字符串形式传递
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.utils
+ * @Author: ajie
+ */
+@Data
+@AllArgsConstructor
+public class ScrollCursor {
+    /**
+     * 分数，即时间戳
+     */
+    private long score;
+    /**
+     * 数据id，分数相同时按id倒序
+     */
+    private long id;
+
+    /**
+     * 在zset中的成员
+     */
+    public String getMember() {
+        return toMember(id);
+    }
+
+    /**
+     * id转换为zset的成员：左侧补0到固定的19位（long的最大位数），
+     * redis中同分数的成员按字典序排列，补齐之后字典序与id的数值顺序一致
+     */
+    public static String toMember(long id) {
+        return String.format("%019d", id);
+    }
+
+    /**
+     * 解析zset的成员，兼容没有补齐的旧数据
+     */
+    public static long parseMember(String member) {
+        return Long.parseLong(member);
+    }
+
+    /**
+     * 编码为游标字符串 base64url(score:id)
+     */
+    public String encode() {
+        return Base64.encodeUrlSafe(score + ":" + id);
+    }
+
+    /**
+     * 解析游标字符串
+     *
+     * @param token 游标字符串
+     * @return 游标，格式不正确时返回null
+     */
+    public static ScrollCursor decode(String token) {
+        try {
+            String str = Base64.decodeStr(token);
+            int index = str.indexOf(':');
+            if (index <= 0) {
+                return null;
+            }
+            String score = str.substring(0, index);
+            String id = str.substring(index + 1);
+            if (!NumberUtil.isLong(score) || !NumberUtil.isLong(id)) {
+                return null;
+            }
+            return new ScrollCursor(Long.parseLong(score), Long.parseLong(id));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 店铺属性表：只保存附近搜索需要的评分、销量、均价和营业时间
+ * 附近搜索从GEO拿到候选店铺后，在内存中完成过滤和排序，最后只按id查询当前页的店铺，不需要扫描数据库
+ * 启动时全量加载，之后定期重新加载；店铺写入时通过 put/remove 增量更新
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.utils
+ * @Author: ajie
+ */
+@Slf4j
+@Component
+public class ShopAttributeTable {
+
+    /**
+     * 营业时间未知
+     */
+    private static final int UNKNOWN_MINUTE = -1;
+
+    //定期重新加载的线程池
+    private static final ScheduledExecutorService SHOP_ATTRIBUTE_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    /**
+     * 店铺id -> 属性，重新加载时整体替换
+     */
+    private volatile ConcurrentHashMap<Long, Attributes> table = new ConcurrentHashMap<>();
+
+    /**
+     * 重新加载期间的增量更新，替换之前重放到新表中，避免被加载开始时的旧数据覆盖；不在加载时为null
+     * 与替换表一起由writeLock保护，读取不加锁
+     */
+    private Map<Long, Attributes> reloadWrites;
+
+    private final Object writeLock = new Object();
+
+    /**
+     * reloadWrites中表示店铺已删除
+     */
+    private static final Attributes REMOVED = new Attributes(0, 0, 0, UNKNOWN_MINUTE, UNKNOWN_MINUTE);
+
+    @PostConstruct
+    private void init() {
+        SHOP_ATTRIBUTE_EXECUTOR.scheduleWithFixedDelay(this::reload, 0,
+                SystemConstants.SHOP_ATTRIBUTE_REFRESH_MINUTES, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        SHOP_ATTRIBUTE_EXECUTOR.shutdown();
+    }
+
+    /**
+     * 按id分批全量加载，同一时间只有一次加载
+     */
+    public synchronized void reload() {
+        synchronized (writeLock) {
+            reloadWrites = new HashMap<>();
+        }
+        try {
+            ConcurrentHashMap<Long, Attributes> newTable = new ConcurrentHashMap<>(Math.max(16, table.size() * 2));
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "score", "sold", "avg_price", "open_hours")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + SystemConstants.SHOP_ATTRIBUTE_BATCH_SIZE));
+                for (Shop shop : shops) {
+                    newTable.put(shop.getId(), Attributes.of(shop));
+                }
+                if (shops.size() < SystemConstants.SHOP_ATTRIBUTE_BATCH_SIZE) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            synchronized (writeLock) {
+                // 重放加载期间的增量更新，再替换
+                reloadWrites.forEach((shopId, attributes) -> {
+                    if (attributes == REMOVED) {
+                        newTable.remove(shopId);
+                    } else {
+                        newTable.put(shopId, attributes);
+                    }
+                });
+                table = newTable;
+            }
+            log.debug("店铺属性表加载完成，店铺数：{}", newTable.size());
+        } catch (Exception e) {
+            log.error("加载店铺属性表异常", e);
+        } finally {
+            synchronized (writeLock) {
+                reloadWrites = null;
+            }
+        }
+    }
+
+    public Attributes get(Long shopId) {
+        return table.get(shopId);
+    }
+
+    /**
+     * 店铺新增或修改后更新
+     */
+    public void put(Shop shop) {
+        Attributes attributes = Attributes.of(shop);
+        synchronized (writeLock) {
+            table.put(shop.getId(), attributes);
+            if (reloadWrites != null) {
+                reloadWrites.put(shop.getId(), attributes);
+            }
+        }
+    }
+
+    public void remove(Long shopId) {
+        synchronized (writeLock) {
+            table.remove(shopId);
+            if (reloadWrites != null) {
+                reloadWrites.put(shopId, REMOVED);
+            }
+        }
+    }
+
+    /**
+     * 店铺的属性，评分乘10保存，营业时间换算为当天的分钟数
+     */
+    public static final class Attributes {
+        private final int score;
+        private final int sold;
+        private final int avgPrice;
+        private final int openMinute;
+        private final int closeMinute;
+
+        private Attributes(int score, int sold, int avgPrice, int openMinute, int closeMinute) {
+            this.score = score;
+            this.sold = sold;
+            this.avgPrice = avgPrice;
+            this.openMinute = openMinute;
+            this.closeMinute = closeMinute;
+        }
+
+        public static Attributes of(Shop shop) {
+            int open = UNKNOWN_MINUTE;
+            int close = UNKNOWN_MINUTE;
+            // 营业时间，例如 10:00-22:00
+            List<String> hours = StrUtil.split(shop.getOpenHours(), '-', true, true);
+            if (hours.size() == 2) {
+                open = parseMinute(hours.get(0));
+                close = parseMinute(hours.get(1));
+            }
+            if (open == UNKNOWN_MINUTE || close == UNKNOWN_MINUTE) {
+                open = close = UNKNOWN_MINUTE;
+            }
+            return new Attributes(
+                    shop.getScore() == null ? 0 : shop.getScore(),
+                    shop.getSold() == null ? 0 : shop.getSold(),
+                    shop.getAvgPrice() == null ? 0 : shop.getAvgPrice().intValue(),
+                    open, close);
+        }
+
+        private static int parseMinute(String time) {
+            List<String> parts = StrUtil.split(time, ':', true, true);
+            if (parts.size() != 2) {
+                return UNKNOWN_MINUTE;
+            }
+            try {
+                int hour = Integer.parseInt(parts.get(0));
+                int minute = Integer.parseInt(parts.get(1));
+                // 24:00 表示营业到当天结束
+                if (hour < 0 || hour > 24 || minute < 0 || minute > 59 || (hour == 24 && minute != 0)) {
+                    return UNKNOWN_MINUTE;
+                }
+                return hour * 60 + minute;
+            } catch (NumberFormatException e) {
+                return UNKNOWN_MINUTE;
+            }
+        }
+
+        /**
+         * 给定时间是否在营业，营业时间未知的店铺视为不在营业
+         */
+        public boolean isOpen(LocalTime time) {
+            if (openMinute == UNKNOWN_MINUTE) {
+                return false;
+            }
+            int now = time.getHour() * 60 + time.getMinute();
+            if (openMinute == closeMinute) {
+                // 24小时营业
+                return true;
+            }
+            if (openMinute < closeMinute) {
+                return now >= openMinute && now < closeMinute;
+            }
+            // 跨越零点，例如 18:00-02:00
+            return now >= openMinute || now < closeMinute;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        public int getSold() {
+            return sold;
+        }
+
+        public int getAvgPrice() {
+            return avgPrice;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 签到bitmap的位运算
+ * redis中 sign:{userId}:yyyyMM 的第 day-1 位表示当月第day天是否签到，一个月最多31位；
+ * 这里统一转换为int，第 day-1 位（从低位数起）表示第day天，统计都用位运算完成，不逐位循环
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.utils
+ * @Author: ajie
+ */
+public class SignBitmaps {
+
+    private SignBitmaps() {
+    }
+
+    /**
+     * GET得到的bitmap转换为int
+     *
+     * @param bytes redis中的原始字节，不存在时为null
+     * @return 第 day-1 位表示第day天的int
+     */
+    public static int fromBytes(byte[] bytes) {
+        if (bytes == null) {
+            return 0;
+        }
+        // 大端读取，redis的第0位即int的最高位
+        int raw = 0;
+        for (int i = 0; i < Integer.BYTES; i++) {
+            raw <<= 8;
+            if (i < bytes.length) {
+                raw |= bytes[i] & 0xFF;
+            }
+        }
+        // 翻转后第0位即第1天
+        return Integer.reverse(raw);
+    }
+
+    /**
+     * 只保留前days天
+     */
+    public static int mask(int bits, int days) {
+        return days >= Integer.SIZE ? bits : bits & ((1 << days) - 1);
+    }
+
+    /**
+     * 截止到第day天（含）的连续签到天数
+     */
+    public static int streakEndingAt(int bits, int day) {
+        if (day <= 0) {
+            return 0;
+        }
+        // 把第day天移到最高位，连续签到天数即高位连续1的个数
+        return Integer.numberOfLeadingZeros(~(bits << (Integer.SIZE - day)));
+    }
+
+    /**
+     * 从第1天开始的连续签到天数，用于向前一个月拼接连续签到
+     */
+    public static int streakFromFirstDay(int bits) {
+        return Integer.numberOfTrailingZeros(~bits);
+    }
+
+    /**
+     * 最长连续签到天数
+     * 每次 x &= x >>> 1 会让每一段连续的1缩短一位，循环次数即最长一段的长度
+     */
+    public static int longestStreak(int bits) {
+        int count = 0;
+        for (int x = bits; x != 0; x &= x >>> 1) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 签到的日期列表，每次取出最低位的1
+     */
+    public static List<Integer> days(int bits) {
+        List<Integer> days = new ArrayList<>(Integer.bitCount(bits));
+        for (int x = bits; x != 0; x &= x - 1) {
+            days.add(Integer.numberOfTrailingZeros(x) + 1);
+        }
+        return days;
+    }
+}
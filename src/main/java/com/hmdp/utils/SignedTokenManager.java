@@ -0,0 +1,187 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.jwt.JWT;
+import cn.hutool.jwt.JWTValidator;
+import cn.hutool.jwt.signers.JWTSigner;
+import cn.hutool.jwt.signers.JWTSignerUtil;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 签名token（JWT，HS256）的签发与校验
+ * token中携带UserDTO的字段，拦截器在本地校验签名和有效期，不需要访问redis；
+ * 注销的token记录在redis的黑名单中（zset，分数为token的过期时间），
+ * 由后台线程定期全量同步到本地，校验时只查询本地黑名单
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.utils
+ * @Author: ajie
+ */
+@Slf4j
+@Component
+public class SignedTokenManager {
+
+    //同步黑名单的线程池
+    private static final ScheduledExecutorService DENYLIST_SYNC_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * HS256密钥至少32字节
+     */
+    private static final int MIN_SECRET_BYTES = 32;
+
+    /**
+     * 登录方式，只有 signed 时才签发和校验签名token
+     */
+    @Value("${hmdp.auth.mode:redis}")
+    private String authMode;
+
+    /**
+     * 签名密钥，只能通过环境变量等仓库之外的配置提供
+     */
+    @Value("${hmdp.auth.secret:}")
+    private String secret;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private JWTSigner signer;
+
+    /**
+     * 本地黑名单，每次同步时整体替换
+     */
+    private volatile Set<String> denylist = Collections.emptySet();
+
+    @PostConstruct
+    private void init() {
+        if (!isEnabled()) {
+            return;
+        }
+        // 签名模式下没有配置密钥时直接启动失败，避免使用弱密钥或默认密钥
+        if (StrUtil.isBlank(secret) || secret.getBytes(StandardCharsets.UTF_8).length < MIN_SECRET_BYTES) {
+            throw new IllegalStateException("hmdp.auth.mode=signed 时必须通过 HMDP_AUTH_SECRET 配置至少"
+                    + MIN_SECRET_BYTES + "字节的签名密钥");
+        }
+        signer = JWTSignerUtil.hs256(secret.getBytes(StandardCharsets.UTF_8));
+        DENYLIST_SYNC_EXECUTOR.scheduleWithFixedDelay(
+                this::syncDenylist, 0, LOGIN_DENYLIST_SYNC_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 是否开启了签名token
+     */
+    public boolean isEnabled() {
+        return "signed".equals(authMode);
+    }
+
+    /**
+     * 是否是签名token，UUID形式的token中不包含'.'
+     */
+    public static boolean isSignedToken(String token) {
+        return token.indexOf('.') > 0;
+    }
+
+    /**
+     * 签发token，有效期与redis中的登录token一致
+     */
+    public String create(UserDTO userDTO) {
+        Date expiresAt = new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL));
+        return JWT.create()
+                .setJWTId(UUID.randomUUID().toString(true))
+                .setExpiresAt(expiresAt)
+                .setPayload("id", userDTO.getId())
+                .setPayload("nickName", userDTO.getNickName())
+                .setPayload("icon", userDTO.getIcon())
+                .setSigner(signer)
+                .sign();
+    }
+
+    /**
+     * 校验token并解析出用户
+     *
+     * @return 用户，未开启签名token、签名错误、已过期或已注销时返回null
+     */
+    public UserDTO parse(String token) {
+        JWT jwt = verify(token);
+        if (jwt == null) {
+            return null;
+        }
+        JSONObject payloads = jwt.getPayloads();
+        if (denylist.contains(payloads.getStr("jti"))) {
+            return null;
+        }
+        UserDTO userDTO = new UserDTO();
+        userDTO.setId(payloads.getLong("id"));
+        userDTO.setNickName(payloads.getStr("nickName"));
+        userDTO.setIcon(payloads.getStr("icon"));
+        return userDTO;
+    }
+
+    /**
+     * 注销token，加入黑名单直到token过期
+     */
+    public void revoke(String token) {
+        JWT jwt = verify(token);
+        if (jwt == null) {
+            // 已经无效，无需注销
+            return;
+        }
+        JSONObject payloads = jwt.getPayloads();
+        String jti = payloads.getStr("jti");
+        long expiresAt = TimeUnit.SECONDS.toMillis(payloads.getLong("exp"));
+        // ZADD login:denylist exp jti
+        stringRedisTemplate.opsForZSet().add(LOGIN_DENYLIST_KEY, jti, expiresAt);
+        Set<String> copy = new HashSet<>(denylist);
+        copy.add(jti);
+        denylist = copy;
+    }
+
+    private JWT verify(String token) {
+        if (signer == null) {
+            return null;
+        }
+        try {
+            // 只接受HS256：不能按token头中的alg选择签名算法，alg=none时不会校验签名
+            JWT jwt = JWT.of(token);
+            JWTValidator.of(jwt).validateAlgorithm(signer).validateDate(new Date(), 0);
+            return jwt;
+        } catch (Exception e) {
+            // token格式错误
+            return null;
+        }
+    }
+
+    /**
+     * 全量同步黑名单：先清理已过期的token，再读取剩余的全部token
+     */
+    private void syncDenylist() {
+        try {
+            // ZREMRANGEBYSCORE login:denylist 0 now
+            stringRedisTemplate.opsForZSet().removeRangeByScore(LOGIN_DENYLIST_KEY, 0, System.currentTimeMillis());
+            // ZRANGE login:denylist 0 -1
+            Set<String> jtis = stringRedisTemplate.opsForZSet().range(LOGIN_DENYLIST_KEY, 0, -1);
+            denylist = jtis == null ? Collections.emptySet() : new HashSet<>(jtis);
+        } catch (Exception e) {
+            // redis不可用时保留上一次同步的黑名单
+            log.warn("同步token黑名单失败", e);
+        }
+    }
+}
@@ -1,20 +1,31 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+
+import static com.hmdp.utils.RedisConstants.LOCK_CHANNEL_PREFIX;
+import static com.hmdp.utils.RedisConstants.LOCK_WATCHDOG_TIMEOUT;
 
 /**
+ * 基于redis hash的可重入锁：key为 lock:{name}，field为线程标示，value为重入次数
+ * 1、不指定有效期时由看门狗每 1/3 个有效期续期一次，直到释放锁
+ * 2、等待锁时订阅锁释放的消息，不需要轮询；没有LockWaitNotifier时退化为按剩余有效期轮询
+ * 3、释放不是自己持有的锁（例如有效期已经过了）时抛出IllegalMonitorStateException，与Redisson一致
+ *
  * @BelongsProject: ajie_comment
  * @BelongsPackage: com.hmdp.utils
  * @Author: ajie
  * @Date: 2022/10/22 18:46
  * @Description: TODO
  */
+@Slf4j
 public class SimpleRedisLock implements ILock {
 
     /**
@@ -22,52 +33,227 @@ public class SimpleRedisLock implements ILock {
      */
     private String name;
     private StringRedisTemplate stringRedisTemplate;
+    private LockWaitNotifier lockWaitNotifier;
+    /**
+     * 节点级别的锁：持有者为当前节点而不是当前线程，可以由本节点的其他线程释放
+     */
+    private boolean nodeScoped;
+    /**
+     * 看门狗发现锁已经失效（例如redis故障期间过期）时的回调
+     */
+    private volatile Runnable leaseLostListener;
 
     public SimpleRedisLock(String name, StringRedisTemplate stringRedisTemplate) {
+        this(name, stringRedisTemplate, null);
+    }
+
+    public SimpleRedisLock(String name, StringRedisTemplate stringRedisTemplate, LockWaitNotifier lockWaitNotifier) {
+        this(name, stringRedisTemplate, lockWaitNotifier, false);
+    }
+
+    public SimpleRedisLock(String name, StringRedisTemplate stringRedisTemplate, LockWaitNotifier lockWaitNotifier,
+                           boolean nodeScoped) {
         this.name = name;
         this.stringRedisTemplate = stringRedisTemplate;
+        this.lockWaitNotifier = lockWaitNotifier;
+        this.nodeScoped = nodeScoped;
+    }
+
+    public void setLeaseLostListener(Runnable leaseLostListener) {
+        this.leaseLostListener = leaseLostListener;
     }
 
     private static final String KEY_PREFIX = "lock:";
     private static final String ID_PREFIX = UUID.randomUUID().toString(true) + "-";
+    private static final long WATCHDOG_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(LOCK_WATCHDOG_TIMEOUT);
+    /**
+     * 没有订阅通知时，轮询的最大间隔
+     */
+    private static final long MAX_POLL_MILLIS = 50L;
+
+    private static final DefaultRedisScript<Long> LOCK_SCRIPT;
     private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
 
     //初始化lua脚本
     static {
+        LOCK_SCRIPT = new DefaultRedisScript<>();
+        LOCK_SCRIPT.setLocation(new ClassPathResource("lock.lua"));
+        LOCK_SCRIPT.setResultType(Long.class);
         UNLOCK_SCRIPT = new DefaultRedisScript<>();
-        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("reentrant_unlock.lua"));
         UNLOCK_SCRIPT.setResultType(Long.class);
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("renew_lock.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
     }
 
+    //看门狗续期的线程池
+    private static final ScheduledExecutorService WATCHDOG_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * 看门狗续期中的锁：锁的key + 线程标示 -> 续期任务
+     */
+    private static final ConcurrentHashMap<String, ScheduledFuture<?>> RENEW_ENTRIES = new ConcurrentHashMap<>();
+
     @Override
     public boolean tryLock(long timeoutSec) {
-        // 获取线程标示
-        String threadId = ID_PREFIX + Thread.currentThread().getId();
-        // 获取锁
-        Boolean success = stringRedisTemplate.opsForValue()
-                .setIfAbsent(KEY_PREFIX + name, threadId, timeoutSec, TimeUnit.SECONDS);
-        return Boolean.TRUE.equals(success);
+        // 不等待，有效期到期后自动释放
+        return tryAcquire(TimeUnit.SECONDS.toMillis(timeoutSec)) == null;
+    }
+
+    @Override
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException {
+        return acquire(unit.toMillis(waitTime), leaseTime > 0 ? unit.toMillis(leaseTime) : -1);
+    }
+
+    @Override
+    public void lock() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                acquire(-1, -1);
+                break;
+            } catch (InterruptedException e) {
+                // 不响应中断，获取锁之后恢复中断标记
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param waitMillis  最长等待时间，-1表示一直等待
+     * @param leaseMillis 有效期，-1表示由看门狗续期
+     */
+    private boolean acquire(long waitMillis, long leaseMillis) throws InterruptedException {
+        // 1.尝试获取锁
+        Long ttl = tryAcquire(leaseMillis);
+        if (ttl == null) {
+            return true;
+        }
+        if (waitMillis == 0) {
+            return false;
+        }
+        LockMetrics.markWaited();
+        long deadline = waitMillis < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + waitMillis;
+        // 2.订阅锁释放的消息，订阅之后再重试，避免错过订阅之前的释放
+        String channel = LOCK_CHANNEL_PREFIX + name;
+        LockWaitNotifier.Waiters waiters = lockWaitNotifier == null ? null : lockWaitNotifier.subscribe(channel);
+        try {
+            while (true) {
+                ttl = tryAcquire(leaseMillis);
+                if (ttl == null) {
+                    return true;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                // 3.等待锁释放的通知，最多等到锁的有效期结束
+                long waitTime = ttl >= 0 ? Math.min(ttl, remaining) : remaining;
+                if (waiters != null) {
+                    waiters.getSemaphore().tryAcquire(waitTime, TimeUnit.MILLISECONDS);
+                } else {
+                    Thread.sleep(Math.max(1, Math.min(waitTime, MAX_POLL_MILLIS)));
+                }
+            }
+        } finally {
+            if (waiters != null) {
+                lockWaitNotifier.unsubscribe(channel, waiters);
+            }
+        }
+    }
+
+    /**
+     * 执行获取锁的脚本
+     *
+     * @return null代表获取成功，否则为锁的剩余有效期（毫秒）
+     */
+    private Long tryAcquire(long leaseMillis) {
+        boolean watchdog = leaseMillis <= 0;
+        long releaseTime = leaseMillis;
+        if (watchdog) {
+            releaseTime = WATCHDOG_TIMEOUT_MILLIS;
+        } else if (RENEW_ENTRIES.containsKey(KEY_PREFIX + name + ":" + getThreadId())) {
+            // 已经由看门狗续期时指定有效期重入，不能缩短有效期，否则可能在下一次续期之前过期
+            releaseTime = Math.max(leaseMillis, WATCHDOG_TIMEOUT_MILLIS);
+        }
+        Long ttl = stringRedisTemplate.execute(
+                LOCK_SCRIPT,
+                Collections.singletonList(KEY_PREFIX + name),
+                getThreadId(), String.valueOf(releaseTime));
+        if (ttl == null && watchdog) {
+            scheduleRenewal();
+        }
+        return ttl;
     }
 
     //确保判断锁标识和删除锁的原子性
     @Override
     public void unlock() {
-        // 调用lua脚本
-        stringRedisTemplate.execute(
+        String threadId = getThreadId();
+        // 调用lua脚本，完全释放时通知等待者
+        Long result = stringRedisTemplate.execute(
                 UNLOCK_SCRIPT,
-                Collections.singletonList(KEY_PREFIX + name),
-                ID_PREFIX + Thread.currentThread().getId());
+                Arrays.asList(KEY_PREFIX + name, LOCK_CHANNEL_PREFIX + name),
+                threadId, String.valueOf(WATCHDOG_TIMEOUT_MILLIS));
+        // 重入次数以redis中的为准：完全释放或者锁已经失效时才停止续期，与每一层使用哪种有效期无关
+        if (result == null || result == 1) {
+            cancelRenewal();
+        }
+        if (result == null) {
+            // 锁已经过期或者被其他线程持有，临界区可能已经不受保护，需要让调用者知道
+            throw new IllegalMonitorStateException("锁 " + KEY_PREFIX + name + " 不是由当前线程持有，可能已经过期");
+        }
     }
-    /*@Override
-    public void unlock() {
-        // 获取线程标示
-        String threadId = ID_PREFIX + Thread.currentThread().getId();
-        // 获取锁中的标示
-        String id = stringRedisTemplate.opsForValue().get(KEY_PREFIX + name);
-        // 判断标示是否一致
-        if(threadId.equals(id)) {
-            // 释放锁
-            stringRedisTemplate.delete(KEY_PREFIX + name);
+
+    private String getThreadId() {
+        // 获取线程标示，节点级别的锁使用固定的标示
+        return nodeScoped ? ID_PREFIX + "node" : ID_PREFIX + Thread.currentThread().getId();
+    }
+
+    /**
+     * 看门狗：同一线程重入时共用一个续期任务，直到完全释放
+     */
+    private void scheduleRenewal() {
+        String key = KEY_PREFIX + name;
+        String threadId = getThreadId();
+        long period = WATCHDOG_TIMEOUT_MILLIS / 3;
+        RENEW_ENTRIES.computeIfAbsent(key + ":" + threadId, k -> WATCHDOG_EXECUTOR.scheduleWithFixedDelay(
+                () -> renew(k, key, threadId), period, period, TimeUnit.MILLISECONDS));
+    }
+
+    private void renew(String entryKey, String key, String threadId) {
+        try {
+            Long result = stringRedisTemplate.execute(
+                    RENEW_SCRIPT,
+                    Collections.singletonList(key),
+                    threadId, String.valueOf(WATCHDOG_TIMEOUT_MILLIS));
+            if (result == null || result == 0) {
+                // 锁已经不存在了，停止续期
+                log.warn("锁 {} 已经失效，停止续期", key);
+                ScheduledFuture<?> future = RENEW_ENTRIES.remove(entryKey);
+                if (future != null) {
+                    future.cancel(false);
+                }
+                Runnable listener = leaseLostListener;
+                if (listener != null) {
+                    listener.run();
+                }
+            }
+        } catch (Exception e) {
+            // redis暂时不可用，下一次继续续期
+            log.error("锁 {} 续期异常", key, e);
+        }
+    }
+
+    private void cancelRenewal() {
+        ScheduledFuture<?> future = RENEW_ENTRIES.remove(KEY_PREFIX + name + ":" + getThreadId());
+        if (future != null) {
+            future.cancel(false);
         }
-    }*/
+    }
 }
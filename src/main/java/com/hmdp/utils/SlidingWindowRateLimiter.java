@@ -0,0 +1,167 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.util.IdUtil;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.RATE_LIMIT_KEY;
+
+/**
+ * 基于redis zset + lua的滑动窗口限流
+ * 本地同样按滑动窗口记录本节点放行的请求，本节点的请求数已经达到上限时，
+ * 全局的请求数必然也达到了上限，直接拒绝，不再访问redis
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.utils
+ * @Author: ajie
+ */
+@Slf4j
+@Component
+public class SlidingWindowRateLimiter {
+
+    /**
+     * 本地最多记录的key数量
+     */
+    private static final int LOCAL_CACHE_CAPACITY = 10000;
+
+    private static final DefaultRedisScript<Long> RATE_LIMIT_SCRIPT;
+
+    //初始化lua脚本
+    static {
+        RATE_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        RATE_LIMIT_SCRIPT.setLocation(new ClassPathResource("rate_limit.lua"));
+        RATE_LIMIT_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 本地窗口：key -> 本节点放行的请求时间戳
+     */
+    private final LRUCache<String, Deque<Long>> localWindows = CacheUtil.newLRUCache(LOCAL_CACHE_CAPACITY);
+
+    /**
+     * 每个限流规则被拒绝的次数
+     */
+    private final Map<String, LongAdder> rejectedCounts = new ConcurrentHashMap<>();
+
+    /**
+     * 尝试通过限流
+     *
+     * @param rule   限流规则名称，例如 code:phone
+     * @param id     限流对象，例如手机号、IP
+     * @param limit  窗口内允许的最大请求数
+     * @param window 窗口大小
+     * @param unit   窗口大小的单位
+     * @return true代表放行；false代表被限流
+     */
+    public boolean tryAcquire(String rule, String id, int limit, long window, TimeUnit unit) {
+        return tryAcquire(window, unit, new Quota(rule, id, limit));
+    }
+
+    /**
+     * 同时通过多个限流规则，例如按手机号和按IP
+     * 所有规则都未达到上限时才放行，并计入所有规则；任意一个规则被限流时，所有规则都不计数
+     *
+     * @param window 窗口大小
+     * @param unit   窗口大小的单位
+     * @param quotas 限流规则
+     * @return true代表放行；false代表被限流
+     */
+    public boolean tryAcquire(long window, TimeUnit unit, Quota... quotas) {
+        long windowMillis = unit.toMillis(window);
+        long now = System.currentTimeMillis();
+        List<String> keys = new ArrayList<>(quotas.length);
+        List<Deque<Long>> localWindows = new ArrayList<>(quotas.length);
+        String[] args = new String[quotas.length + 3];
+        args[0] = String.valueOf(windowMillis);
+        args[1] = String.valueOf(now);
+        args[2] = IdUtil.fastSimpleUUID();
+        for (int i = 0; i < quotas.length; i++) {
+            Quota quota = quotas[i];
+            String key = RATE_LIMIT_KEY + quota.getRule() + ":" + quota.getId();
+            // 1.本地预过滤
+            Deque<Long> localWindow = this.localWindows.get(key, false, () -> new ArrayDeque<>(quota.getLimit()));
+            synchronized (localWindow) {
+                while (!localWindow.isEmpty() && localWindow.peekFirst() <= now - windowMillis) {
+                    localWindow.pollFirst();
+                }
+                if (localWindow.size() >= quota.getLimit()) {
+                    return reject(quota);
+                }
+            }
+            keys.add(key);
+            localWindows.add(localWindow);
+            args[i + 3] = String.valueOf(quota.getLimit());
+        }
+        // 2.执行lua脚本，判断全局的请求数，返回被限流的规则序号（从1开始），0代表放行
+        Long result = stringRedisTemplate.execute(RATE_LIMIT_SCRIPT, keys, (Object[]) args);
+        if (result == null) {
+            return reject(quotas[0]);
+        }
+        if (result != 0) {
+            return reject(quotas[result.intValue() - 1]);
+        }
+        // 3.放行，记录到本地窗口
+        for (Deque<Long> localWindow : localWindows) {
+            synchronized (localWindow) {
+                localWindow.addLast(now);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 获取每个限流规则被拒绝的次数
+     */
+    public Map<String, Long> getRejectedCounts() {
+        Map<String, Long> counts = new HashMap<>(rejectedCounts.size());
+        rejectedCounts.forEach((rule, count) -> counts.put(rule, count.sum()));
+        return counts;
+    }
+
+    private boolean reject(Quota quota) {
+        rejectedCounts.computeIfAbsent(quota.getRule(), r -> new LongAdder()).increment();
+        log.warn("请求被限流, rule: {}, id: {}", quota.getRule(), quota.getId());
+        return false;
+    }
+
+    /**
+     * 一条限流规则
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Quota {
+        /**
+         * 限流规则名称，例如 code:phone
+         */
+        private String rule;
+        /**
+         * 限流对象，例如手机号、IP
+         */
+        private String id;
+        /**
+         * 窗口内允许的最大请求数
+         */
+        private int limit;
+    }
+}
@@ -0,0 +1,228 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 本地生成全局唯一ID（雪花算法），hmdp.id.generator=snowflake 时替代RedisIdWorker
+ * 与RedisIdWorker兼容的格式：高32位为相对 2022-01-01 的秒数，低32位为
+ * 秒内毫秒数（10位）| 机器id（10位）| 毫秒内序列号（12位）
+ * 机器id启动时从redis租用（SET NX EX），心跳续期；租约失效时停止生成ID，避免与其他节点重复
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.utils
+ * @Author: ajie
+ */
+@Slf4j
+@Primary
+@Component
+@ConditionalOnProperty(name = "hmdp.id.generator", havingValue = "snowflake")
+public class SnowflakeIdWorker implements IdWorker {
+    /**
+     * 开始时间戳，与RedisIdWorker一致
+     */
+    private static final long BEGIN_TIMESTAMP = 1640995200L;
+    /**
+     * 低32位的划分
+     */
+    private static final long COUNT_BITS = 32L;
+    private static final long WORKER_ID_BITS = 10L;
+    private static final long SEQUENCE_BITS = 12L;
+    public static final long MAX_WORKER_ID = (1L << WORKER_ID_BITS) - 1;
+    private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+    /**
+     * 允许的最大时钟回拨（毫秒），回拨在此范围内时继续使用上一次的时间
+     */
+    private static final long MAX_BACKWARD_MS = 5L;
+
+    /**
+     * 时区偏移在启动时固定，避免夏令时切换被当作时钟回拨；时间戳与RedisIdWorker一样把本地时间当作UTC
+     */
+    private static final long ZONE_OFFSET_MS = TimeZone.getDefault().getOffset(System.currentTimeMillis());
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+
+    //初始化lua脚本
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("renew_worker.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+        // 与释放锁的逻辑一致：标示相同时才删除
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    //心跳续期的线程池
+    private static final ScheduledExecutorService WORKER_HEARTBEAT_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 租约中保存的节点标示
+     */
+    private final String nodeId = UUID.randomUUID().toString(true);
+
+    private volatile long workerId = -1;
+
+    /**
+     * 租约在本地的有效期，超过后停止生成ID
+     */
+    private volatile long leaseValidUntil;
+
+    /**
+     * 上一次生成ID的状态：毫秒时间戳 << SEQUENCE_BITS | 序列号
+     */
+    private final AtomicLong state = new AtomicLong();
+
+    public SnowflakeIdWorker() {
+    }
+
+    /**
+     * 直接指定机器id，不从redis租用
+     */
+    public SnowflakeIdWorker(long workerId) {
+        if (workerId < 0 || workerId > MAX_WORKER_ID) {
+            throw new IllegalArgumentException("机器id超出范围：" + workerId);
+        }
+        this.workerId = workerId;
+        this.leaseValidUntil = Long.MAX_VALUE;
+    }
+
+    @PostConstruct
+    private void init() {
+        lease();
+        WORKER_HEARTBEAT_EXECUTOR.scheduleWithFixedDelay(
+                this::heartbeat, ID_WORKER_HEARTBEAT_INTERVAL, ID_WORKER_HEARTBEAT_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        WORKER_HEARTBEAT_EXECUTOR.shutdown();
+        // 释放租约
+        stringRedisTemplate.execute(
+                RELEASE_SCRIPT,
+                Collections.singletonList(ID_WORKER_KEY + workerId),
+                nodeId);
+    }
+
+    @Override
+    public Long nextId(String keyPrefix) {
+        if (System.currentTimeMillis() >= leaseValidUntil) {
+            throw new IllegalStateException("机器id租约已失效，暂停生成ID");
+        }
+        while (true) {
+            long now = System.currentTimeMillis() + ZONE_OFFSET_MS;
+            long prev = state.get();
+            long prevMs = prev >>> SEQUENCE_BITS;
+            long next;
+            if (now > prevMs) {
+                // 1.新的一毫秒，序列号从0开始
+                next = now << SEQUENCE_BITS;
+            } else if (prevMs - now > MAX_BACKWARD_MS) {
+                // 2.读取时间后线程可能被挂起，其他线程已经推进了时间，重新读取时钟后仍然落后太多才是时钟回拨
+                long latest = System.currentTimeMillis() + ZONE_OFFSET_MS;
+                if (prevMs - latest > MAX_BACKWARD_MS) {
+                    throw new IllegalStateException("时钟回拨" + (prevMs - latest) + "ms，拒绝生成ID");
+                }
+                continue;
+            } else if ((prev & MAX_SEQUENCE) < MAX_SEQUENCE) {
+                // 3.同一毫秒（或小幅回拨），序列号+1
+                next = prev + 1;
+            } else if (prevMs - now < MAX_BACKWARD_MS) {
+                // 4.当前毫秒的序列号用完，借用下一毫秒
+                next = (prevMs + 1) << SEQUENCE_BITS;
+            } else {
+                // 5.借用的时间已经超前太多，等待时钟追上
+                Thread.yield();
+                continue;
+            }
+            // CAS成功即占有这个时间和序列号
+            if (state.compareAndSet(prev, next)) {
+                return toId(next >>> SEQUENCE_BITS, next & MAX_SEQUENCE);
+            }
+        }
+    }
+
+    private long toId(long ms, long sequence) {
+        long timestamp = ms / 1000 - BEGIN_TIMESTAMP;
+        long msOfSecond = ms % 1000;
+        return timestamp << COUNT_BITS
+                | msOfSecond << (WORKER_ID_BITS + SEQUENCE_BITS)
+                | workerId << SEQUENCE_BITS
+                | sequence;
+    }
+
+    public long getWorkerId() {
+        return workerId;
+    }
+
+    /**
+     * 从随机位置开始依次尝试租用机器id
+     */
+    private void lease() {
+        long start = ThreadLocalRandom.current().nextLong(MAX_WORKER_ID + 1);
+        for (long i = 0; i <= MAX_WORKER_ID; i++) {
+            long id = (start + i) & MAX_WORKER_ID;
+            long begin = System.currentTimeMillis();
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(ID_WORKER_KEY + id, nodeId, ID_WORKER_TTL, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                workerId = id;
+                leaseValidUntil = leaseDeadline(begin);
+                log.info("租用机器id：{}", id);
+                return;
+            }
+        }
+        throw new IllegalStateException("没有可用的机器id");
+    }
+
+    private void heartbeat() {
+        try {
+            long begin = System.currentTimeMillis();
+            Long result = stringRedisTemplate.execute(
+                    RENEW_SCRIPT,
+                    Collections.singletonList(ID_WORKER_KEY + workerId),
+                    nodeId, String.valueOf(ID_WORKER_TTL));
+            if (result != null && result == 1) {
+                leaseValidUntil = leaseDeadline(begin);
+                return;
+            }
+            // 租约已经被其他节点占用，停止使用旧的机器id，重新租用
+            log.warn("机器id {} 的租约已失效，重新租用", workerId);
+            leaseValidUntil = 0;
+            lease();
+        } catch (Exception e) {
+            // redis不可用时保持当前租约，超过本地有效期后nextId会拒绝生成
+            log.error("机器id续期异常", e);
+        }
+    }
+
+    /**
+     * 本地有效期比redis中的过期时间少一个心跳周期，保证在redis中的key过期之前停止使用
+     */
+    private static long leaseDeadline(long begin) {
+        return begin + TimeUnit.SECONDS.toMillis(ID_WORKER_TTL - ID_WORKER_HEARTBEAT_INTERVAL);
+    }
+}
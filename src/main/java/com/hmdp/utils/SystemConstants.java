@@ -5,4 +5,16 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    public static final int FEED_PAGE_SIZE = 3;
+    public static final int FEED_FANOUT_BATCH_SIZE = 500;
+    public static final int FEED_INBOX_MAX_SIZE = 1000;
+    public static final int SIGN_STREAK_BATCH_MONTHS = 3;
+    public static final int SIGN_ARCHIVE_BATCH_SIZE = 100;
+    public static final int SHOP_GEO_DEFAULT_RADIUS = 5000;
+    public static final int SHOP_GEO_MAX_RADIUS = 50000;
+    public static final int SHOP_GEO_MAX_CANDIDATES = 1000;
+    public static final int[] SHOP_GEO_RADIUS_STEPS = {500, 1000, 2000, 5000, 10000, 20000, 50000};
+    public static final int SHOP_ATTRIBUTE_BATCH_SIZE = 1000;
+    public static final long SHOP_ATTRIBUTE_REFRESH_MINUTES = 10;
+    public static final int SHOP_GEO_RECONCILE_BATCH_SIZE = 500;
 }
@@ -0,0 +1,198 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.lang.UUID;
+import com.hmdp.dto.UserDTO;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 登录token的存储
+ * redis中以hash保存token对应的用户，本地再缓存一份已校验过的token，
+ * 本地缓存过期前不再访问redis；过期后用一次lua脚本完成查询用户和刷新有效期，
+ * 所以每个token在每个节点上最多每 LOGIN_USER_LOCAL_TTL 秒访问一次redis；
+ * 每个用户的token记录在索引 login:user:tokens:userId 中（zset，分数为最近活跃时间），用于注销全部登录
+ * <p>
+ * hmdp.auth.mode=signed 时改为签发签名token，校验时不访问redis，见 {@link SignedTokenManager}
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.utils
+ * @Author: ajie
+ */
+@Component
+public class TokenSessionStore {
+
+    /**
+     * 本地最多缓存的token数量
+     */
+    private static final int LOCAL_CACHE_CAPACITY = 10000;
+
+    private static final DefaultRedisScript<List<String>> REFRESH_TOKEN_SCRIPT;
+
+    //初始化lua脚本
+    static {
+        REFRESH_TOKEN_SCRIPT = new DefaultRedisScript<>();
+        REFRESH_TOKEN_SCRIPT.setLocation(new ClassPathResource("refresh_token.lua"));
+        // 脚本返回HGETALL的结果，元素都是字符串
+        @SuppressWarnings("unchecked")
+        Class<List<String>> resultType = (Class<List<String>>) (Class<?>) List.class;
+        REFRESH_TOKEN_SCRIPT.setResultType(resultType);
+    }
+
+    private final LRUCache<String, UserDTO> localCache =
+            CacheUtil.newLRUCache(LOCAL_CACHE_CAPACITY, TimeUnit.SECONDS.toMillis(LOGIN_USER_LOCAL_TTL));
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SignedTokenManager signedTokenManager;
+
+    /**
+     * 签发登录token
+     */
+    public String issue(UserDTO userDTO) {
+        if (signedTokenManager.isEnabled()) {
+            return signedTokenManager.create(userDTO);
+        }
+        // 随机生成token，作为登录令牌
+        String token = UUID.randomUUID().toString(true);
+        save(token, userDTO);
+        return token;
+    }
+
+    /**
+     * 保存token对应的用户
+     */
+    private void save(String token, UserDTO userDTO) {
+        // 1.将UserDTO转为HashMap存储
+        Map<String, String> userMap = new HashMap<>(4);
+        userMap.put("id", userDTO.getId().toString());
+        if (userDTO.getNickName() != null) {
+            userMap.put("nickName", userDTO.getNickName());
+        }
+        if (userDTO.getIcon() != null) {
+            userMap.put("icon", userDTO.getIcon());
+        }
+        // 2.存储、设置token有效期、记录到用户的token索引中
+        String tokenKey = LOGIN_USER_KEY + token;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hMSet(tokenKey, userMap);
+            conn.expire(tokenKey, TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL));
+            conn.zAdd(LOGIN_USER_TOKENS_KEY + userDTO.getId(), System.currentTimeMillis(), token);
+            return null;
+        });
+        localCache.put(token, userDTO);
+    }
+
+    /**
+     * 查询token对应的用户，并刷新token有效期
+     *
+     * @return 用户，token无效时返回null
+     */
+    public UserDTO get(String token) {
+        // 0.开启了签名token时，签名token在本地校验
+        if (signedTokenManager.isEnabled() && SignedTokenManager.isSignedToken(token)) {
+            return signedTokenManager.parse(token);
+        }
+        // 1.查询本地缓存
+        UserDTO userDTO = localCache.get(token, false);
+        if (userDTO != null) {
+            return userDTO;
+        }
+        // 2.本地未命中，执行lua脚本，查询用户并刷新有效期
+        List<String> fields = stringRedisTemplate.execute(
+                REFRESH_TOKEN_SCRIPT,
+                Collections.singletonList(LOGIN_USER_KEY + token),
+                String.valueOf(TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL))
+        );
+        if (fields == null || fields.isEmpty()) {
+            return null;
+        }
+        // 3.将hash数据转为UserDTO
+        userDTO = toUserDTO(fields);
+        // 4.更新用户token索引中的活跃时间 ZADD login:user:tokens:userId now token
+        // 索引的key取决于hash中的用户id，不能在脚本中访问（未在KEYS中声明的key在集群模式下不可用）
+        if (userDTO.getId() != null) {
+            stringRedisTemplate.opsForZSet().add(LOGIN_USER_TOKENS_KEY + userDTO.getId(), token, System.currentTimeMillis());
+        }
+        // 5.写入本地缓存
+        localCache.put(token, userDTO);
+        return userDTO;
+    }
+
+    /**
+     * 注销token
+     * 其他节点的本地缓存最多在 LOGIN_USER_LOCAL_TTL 秒后失效
+     */
+    public void remove(String token) {
+        localCache.remove(token);
+        // 1.签名token，加入黑名单
+        if (signedTokenManager.isEnabled() && SignedTokenManager.isSignedToken(token)) {
+            signedTokenManager.revoke(token);
+            return;
+        }
+        // 2.删除token，并从用户的token索引中移除
+        String tokenKey = LOGIN_USER_KEY + token;
+        Object userId = stringRedisTemplate.opsForHash().get(tokenKey, "id");
+        stringRedisTemplate.delete(tokenKey);
+        if (userId != null) {
+            stringRedisTemplate.opsForZSet().remove(LOGIN_USER_TOKENS_KEY + userId, token);
+        }
+    }
+
+    /**
+     * 注销用户的全部token（签名token只能逐个注销）
+     */
+    public void removeAll(Long userId) {
+        // 1.查询用户的token索引 ZRANGE login:user:tokens:userId 0 -1
+        String indexKey = LOGIN_USER_TOKENS_KEY + userId;
+        Set<String> tokens = stringRedisTemplate.opsForZSet().range(indexKey, 0, -1);
+        // 2.删除全部token和索引
+        List<String> keys = new ArrayList<>();
+        keys.add(indexKey);
+        if (tokens != null) {
+            for (String token : tokens) {
+                localCache.remove(token);
+                keys.add(LOGIN_USER_KEY + token);
+            }
+        }
+        stringRedisTemplate.delete(keys);
+    }
+
+    /**
+     * HGETALL的结果为 field1, value1, field2, value2 ...
+     */
+    private static UserDTO toUserDTO(List<String> fields) {
+        UserDTO userDTO = new UserDTO();
+        for (int i = 0; i + 1 < fields.size(); i += 2) {
+            String value = fields.get(i + 1);
+            switch (fields.get(i)) {
+                case "id":
+                    userDTO.setId(Long.valueOf(value));
+                    break;
+                case "nickName":
+                    userDTO.setNickName(value);
+                    break;
+                case "icon":
+                    userDTO.setIcon(value);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return userDTO;
+    }
+}
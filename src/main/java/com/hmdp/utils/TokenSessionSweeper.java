@@ -0,0 +1,151 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 登录token的清理任务，定期执行：
+ * 1、清理用户token索引中已经失效的token
+ * 2、删除不在用户token索引中的孤立token（索引写入失败、或者旧版本登录产生的token）
+ * 多个节点之间通过分布式锁保证同一时间只有一个节点在清理
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.utils
+ * @Author: ajie
+ */
+@Slf4j
+@Component
+public class TokenSessionSweeper {
+
+    /**
+     * 每批处理的key数量
+     */
+    private static final int SCAN_BATCH_SIZE = 100;
+
+    //清理任务的线程池
+    private static final ScheduledExecutorService SWEEP_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private LockMetrics lockMetrics;
+
+    @PostConstruct
+    private void init() {
+        SWEEP_EXECUTOR.scheduleWithFixedDelay(this::sweep, LOGIN_SWEEP_INTERVAL, LOGIN_SWEEP_INTERVAL, TimeUnit.MINUTES);
+    }
+
+    public void sweep() {
+        ILock lock = lockMetrics.instrument("login:sweep", new SimpleRedisLock("login:sweep", stringRedisTemplate));
+        if (!lock.tryLock(TimeUnit.MINUTES.toSeconds(LOGIN_SWEEP_INTERVAL))) {
+            // 其他节点正在清理
+            return;
+        }
+        try {
+            sweepUserIndexes();
+            sweepOrphanTokens();
+        } catch (Exception e) {
+            log.error("清理登录token异常", e);
+        } finally {
+            try {
+                lock.unlock();
+            } catch (IllegalMonitorStateException e) {
+                // 定时任务中不能抛出，否则后续的调度会停止
+                log.warn("清理登录token期间锁已经过期，其他节点可能同时在清理", e);
+            }
+        }
+    }
+
+    /**
+     * 清理用户token索引：移除长时间未活跃、以及已经不存在的token
+     */
+    private void sweepUserIndexes() {
+        long expiredBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL);
+        RedisScanUtils.scan(stringRedisTemplate, LOGIN_USER_TOKENS_KEY + "*", SCAN_BATCH_SIZE, indexKeys -> {
+            for (String indexKey : indexKeys) {
+                // 1.超过有效期未活跃的token一定已经过期 ZREMRANGEBYSCORE indexKey 0 expiredBefore
+                stringRedisTemplate.opsForZSet().removeRangeByScore(indexKey, 0, expiredBefore);
+                Set<String> tokens = stringRedisTemplate.opsForZSet().range(indexKey, 0, -1);
+                if (tokens == null || tokens.isEmpty()) {
+                    continue;
+                }
+                // 2.pipeline批量判断token是否存在
+                List<String> tokenList = new ArrayList<>(tokens);
+                List<Object> exists = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (String token : tokenList) {
+                        conn.exists(LOGIN_USER_KEY + token);
+                    }
+                    return null;
+                });
+                // 3.移除已经不存在的token
+                List<Object> missing = new ArrayList<>();
+                for (int i = 0; i < tokenList.size(); i++) {
+                    if (!Boolean.TRUE.equals(exists.get(i))) {
+                        missing.add(tokenList.get(i));
+                    }
+                }
+                if (!missing.isEmpty()) {
+                    stringRedisTemplate.opsForZSet().remove(indexKey, missing.toArray());
+                }
+            }
+        });
+    }
+
+    /**
+     * 删除不在用户token索引中的token
+     * 刚写入的token可能还没有写入索引，所以只处理一分钟内没有刷新过有效期的token
+     */
+    private void sweepOrphanTokens() {
+        long recentTtl = TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL) - TimeUnit.MINUTES.toMillis(1);
+        RedisScanUtils.scan(stringRedisTemplate, LOGIN_USER_KEY + "*", SCAN_BATCH_SIZE, tokenKeys -> {
+            // 1.pipeline批量查询token对应的用户id和剩余有效期
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (String tokenKey : tokenKeys) {
+                    conn.hGet(tokenKey, "id");
+                    conn.pTtl(tokenKey);
+                }
+                return null;
+            });
+            // 2.pipeline批量查询token是否在用户的索引中
+            List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (int i = 0; i < tokenKeys.size(); i++) {
+                    Object userId = results.get(i * 2);
+                    String token = tokenKeys.get(i).substring(LOGIN_USER_KEY.length());
+                    conn.zScore(LOGIN_USER_TOKENS_KEY + (userId == null ? "" : userId), token);
+                }
+                return null;
+            });
+            // 3.删除孤立的token
+            List<String> orphans = new ArrayList<>();
+            for (int i = 0; i < tokenKeys.size(); i++) {
+                Object pttl = results.get(i * 2 + 1);
+                boolean recent = pttl instanceof Long && (Long) pttl > recentTtl;
+                if (scores.get(i) == null && !recent) {
+                    orphans.add(tokenKeys.get(i));
+                }
+            }
+            if (!orphans.isEmpty()) {
+                log.debug("删除孤立的登录token: {}", orphans.size());
+                stringRedisTemplate.delete(orphans);
+            }
+        });
+    }
+}
@@ -0,0 +1,98 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.User;
+import com.hmdp.mapper.UserMapper;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 用户缓存
+ * cache:user:id -> UserDTO；cache:user:phone:phone -> id
+ * 目前没有修改用户信息的接口，缓存只随TTL过期
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.utils
+ * @Author: ajie
+ */
+@Component
+public class UserCache {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private UserMapper userMapper;
+
+    /**
+     * 根据id查询用户
+     */
+    public UserDTO get(Long id) {
+        return cacheClient.queryWithPassThrough(CACHE_USER_KEY, id, UserDTO.class,
+                userId -> toUserDTO(userMapper.selectById(userId)), CACHE_USER_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 根据id批量查询用户
+     *
+     * @return 按ids顺序排列的用户，不存在的用户会被忽略
+     */
+    public List<UserDTO> getAll(List<Long> ids) {
+        return cacheClient.queryBatchWithPassThrough(CACHE_USER_KEY, ids, UserDTO.class,
+                userIds -> userMapper.selectBatchIds(userIds).stream()
+                        .map(UserCache::toUserDTO)
+                        .collect(Collectors.toList()),
+                UserDTO::getId, CACHE_USER_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 根据手机号查询用户
+     * 不缓存不存在的手机号，因为登录时会立即创建该手机号的用户
+     */
+    public UserDTO getByPhone(String phone) {
+        // 1.查询手机号对应的用户id
+        String phoneKey = CACHE_USER_PHONE_KEY + phone;
+        String id = stringRedisTemplate.opsForValue().get(phoneKey);
+        if (StrUtil.isNotBlank(id)) {
+            // 2.存在，根据id查询用户
+            UserDTO userDTO = get(Long.valueOf(id));
+            if (userDTO != null) {
+                return userDTO;
+            }
+        }
+        // 3.不存在，查询数据库 select * from tb_user where phone = ?
+        User user = userMapper.selectOne(new QueryWrapper<User>().eq("phone", phone));
+        if (user == null) {
+            return null;
+        }
+        // 4.写入缓存
+        put(user);
+        return toUserDTO(user);
+    }
+
+    /**
+     * 写入用户缓存
+     */
+    public void put(User user) {
+        cacheClient.set(CACHE_USER_KEY + user.getId(), toUserDTO(user), CACHE_USER_TTL, TimeUnit.MINUTES);
+        stringRedisTemplate.opsForValue().set(CACHE_USER_PHONE_KEY + user.getPhone(),
+                user.getId().toString(), CACHE_USER_TTL, TimeUnit.MINUTES);
+    }
+
+    private static UserDTO toUserDTO(User user) {
+        return user == null ? null : BeanUtil.copyProperties(user, UserDTO.class);
+    }
+}
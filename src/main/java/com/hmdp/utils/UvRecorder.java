@@ -0,0 +1,104 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 日活（UV）统计，每天一个HyperLogLog：stat:uv:yyyyMMdd
+ * 请求中的用户先在本地按天去重暂存，由后台线程定期批量PFADD，避免每个请求都访问一次redis
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.utils
+ * @Author: ajie
+ */
+@Slf4j
+@Component
+public class UvRecorder {
+
+    private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    /**
+     * 每次PFADD的元素数量
+     */
+    private static final int PFADD_BATCH_SIZE = 1000;
+
+    //批量写入的线程池
+    private static final ScheduledExecutorService UV_FLUSH_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 日期 -> 待写入的用户id
+     */
+    private final ConcurrentHashMap<String, Set<String>> pending = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        UV_FLUSH_EXECUTOR.scheduleWithFixedDelay(this::flush, STAT_UV_FLUSH_INTERVAL, STAT_UV_FLUSH_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        UV_FLUSH_EXECUTOR.shutdown();
+        flush();
+    }
+
+    /**
+     * 记录一次访问
+     */
+    public void record(Long userId) {
+        String day = LocalDate.now().format(DAY_FORMATTER);
+        // compute在同一个key上是原子的，与flush中的remove不会丢失数据
+        pending.compute(day, (k, users) -> {
+            if (users == null) {
+                users = new HashSet<>();
+            }
+            users.add(userId.toString());
+            return users;
+        });
+    }
+
+    /**
+     * 把暂存的用户批量写入redis
+     */
+    public void flush() {
+        for (String day : new ArrayList<>(pending.keySet())) {
+            Set<String> users = pending.remove(day);
+            if (users == null || users.isEmpty()) {
+                continue;
+            }
+            String key = STAT_UV_KEY + day;
+            List<String> userList = new ArrayList<>(users);
+            try {
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (int from = 0; from < userList.size(); from += PFADD_BATCH_SIZE) {
+                        List<String> batch = userList.subList(from, Math.min(from + PFADD_BATCH_SIZE, userList.size()));
+                        conn.pfAdd(key, batch.toArray(new String[0]));
+                    }
+                    conn.expire(key, TimeUnit.DAYS.toSeconds(STAT_TTL));
+                    return null;
+                });
+            } catch (Exception e) {
+                log.error("写入UV统计异常，日期：{}，用户数：{}", day, userList.size(), e);
+            }
+        }
+    }
+}
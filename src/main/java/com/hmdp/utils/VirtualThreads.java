@@ -0,0 +1,89 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 线程池的创建入口，开启虚拟线程时返回每个任务一个虚拟线程的线程池
+ * 项目仍以java8为编译目标，虚拟线程的api通过反射调用，低版本jdk上自动退回平台线程；
+ * 开关为jvm系统属性 -Dhmdp.virtual-threads.enabled=true（jdk21的maven profile中默认开启），
+ * 静态线程池在spring启动之前创建，所以不能放在application.yaml中
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp.utils
+ * @Author: ajie
+ */
+@Slf4j
+public class VirtualThreads {
+
+    public static final String ENABLED_PROPERTY = "hmdp.virtual-threads.enabled";
+
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method method = null;
+        try {
+            method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException ignored) {
+            // jdk21以下没有虚拟线程
+        }
+        NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = method;
+    }
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * 当前jdk是否支持虚拟线程
+     */
+    public static boolean isAvailable() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * 是否使用虚拟线程：开关已打开并且jdk支持
+     */
+    public static boolean isEnabled() {
+        if (!Boolean.getBoolean(ENABLED_PROPERTY)) {
+            return false;
+        }
+        if (!isAvailable()) {
+            log.warn("已开启虚拟线程，但当前jdk {} 不支持，使用平台线程", System.getProperty("java.version"));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 每个任务一个虚拟线程的线程池
+     *
+     * @throws IllegalStateException 当前jdk不支持虚拟线程
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (!isAvailable()) {
+            throw new IllegalStateException("当前jdk不支持虚拟线程");
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("创建虚拟线程池失败", e);
+        }
+    }
+
+    /**
+     * 固定大小的线程池，开启虚拟线程时不再限制线程数
+     */
+    public static ExecutorService newFixedThreadPool(int nThreads) {
+        return isEnabled() ? newVirtualThreadPerTaskExecutor() : Executors.newFixedThreadPool(nThreads);
+    }
+
+    /**
+     * 单线程的线程池，用于长期运行的消费者任务，开启虚拟线程时任务运行在虚拟线程上
+     */
+    public static ExecutorService newSingleThreadExecutor() {
+        return isEnabled() ? newVirtualThreadPerTaskExecutor() : Executors.newSingleThreadExecutor();
+    }
+}
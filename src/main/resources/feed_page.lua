@@ -0,0 +1,28 @@
+-- 1.参数列表
+-- 1.1.收件箱的key
+local key = KEYS[1]
+-- 1.2.每页数量
+local count = tonumber(ARGV[1])
+-- 1.3.第一页为最大时间戳，之后为游标的分数
+local score = ARGV[2]
+-- 1.4.游标的成员，第一页为空字符串
+local member = ARGV[3]
+
+-- 2.第一页 ZREVRANGEBYSCORE key max 0 WITHSCORES LIMIT 0 count
+if (member == '') then
+    return redis.call('zrevrangebyscore', key, score, 0, 'WITHSCORES', 'LIMIT', 0, count)
+end
+-- 3.定位游标 ZREVRANK key member
+-- 游标对应的笔记已经不在收件箱中（被裁剪或删除）时，临时加入以确定位置，脚本结束前移除
+local added = 0
+if (not redis.call('zscore', key, member)) then
+    added = redis.call('zadd', key, score, member)
+end
+local rank = redis.call('zrevrank', key, member)
+-- 4.游标之后的一页 ZREVRANGE key rank+1 rank+count WITHSCORES
+-- 同分数的成员按字典序倒序，成员是补齐长度的id，即按id倒序，不需要重新读取同分数的成员
+local page = redis.call('zrevrange', key, rank + 1, rank + count, 'WITHSCORES')
+if (added == 1) then
+    redis.call('zrem', key, member)
+end
+return page
@@ -0,0 +1,29 @@
+-- 1.参数列表
+-- 1.1.店铺GEO的key
+local geoKey = KEYS[1]
+-- 1.2.保存搜索结果的key
+local resultKey = KEYS[2]
+-- 1.3.搜索结果为空的标记
+local emptyKey = KEYS[3]
+-- 1.4.中心点的经度、纬度
+local x = ARGV[1]
+local y = ARGV[2]
+-- 1.5.搜索半径（米）
+local radius = ARGV[3]
+-- 1.6.搜索结果的有效期（秒）
+local ttl = ARGV[4]
+-- 1.7.最多保存的店铺数量
+local limit = ARGV[5]
+-- 1.8.空结果标记的有效期（秒）
+local emptyTtl = ARGV[6]
+
+-- 2.搜索并保存最近的limit个 GEOSEARCHSTORE resultKey geoKey FROMLONLAT x y BYRADIUS radius m ASC COUNT limit STOREDIST
+local count = redis.call('geosearchstore', resultKey, geoKey, 'FROMLONLAT', x, y, 'BYRADIUS', radius, 'm', 'ASC', 'COUNT', limit, 'STOREDIST')
+-- 3.与搜索在同一个脚本中设置有效期，不会留下没有有效期的结果 EXPIRE resultKey ttl
+if (count > 0) then
+    redis.call('expire', resultKey, ttl)
+else
+    -- 4.没有店铺时GEOSEARCHSTORE不会创建resultKey，写入较短有效期的空结果标记，避免每次请求都重新搜索 SET emptyKey 1 EX emptyTtl
+    redis.call('set', emptyKey, '1', 'EX', emptyTtl)
+end
+return count
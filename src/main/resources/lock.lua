@@ -0,0 +1,21 @@
+-- 锁的key
+local key = KEYS[1]
+-- 线程标示
+local threadId = ARGV[1]
+-- 锁的有效期（毫秒）
+local releaseTime = ARGV[2]
+
+-- 锁不存在，获取锁
+if(redis.call('exists', key) == 0) then
+    redis.call('hset', key, threadId, 1)
+    redis.call('pexpire', key, releaseTime)
+    return nil
+end
+-- 锁已经存在，判断是否是自己持有的，是则重入次数+1
+if(redis.call('hexists', key, threadId) == 1) then
+    redis.call('hincrby', key, threadId, 1)
+    redis.call('pexpire', key, releaseTime)
+    return nil
+end
+-- 被其他线程持有，返回剩余有效期
+return redis.call('pttl', key)
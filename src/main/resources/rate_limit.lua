@@ -0,0 +1,27 @@
+-- 1.参数列表
+-- 1.1.限流的key KEYS[1..n]，一次请求同时计入所有key
+-- 1.2.窗口大小（毫秒）
+local window = tonumber(ARGV[1])
+-- 1.3.当前时间戳（毫秒）
+local now = tonumber(ARGV[2])
+-- 1.4.本次请求的唯一标识
+local member = ARGV[3]
+-- 1.5.每个key窗口内允许的最大请求数 ARGV[4..n+3]
+
+-- 2.依次判断每个key
+for i, key in ipairs(KEYS) do
+    -- 2.1.移除窗口之外的请求 ZREMRANGEBYSCORE key 0 now-window
+    redis.call('zremrangebyscore', key, 0, now - window)
+    -- 2.2.判断窗口内的请求数是否达到上限 ZCARD key
+    if (redis.call('zcard', key) >= tonumber(ARGV[i + 3])) then
+        -- 2.3.达到上限，拒绝，所有key都不记录本次请求，返回被限流的key的序号
+        return i
+    end
+end
+-- 3.都未达到上限，在所有key中记录本次请求 ZADD key now member
+for _, key in ipairs(KEYS) do
+    redis.call('zadd', key, now, member)
+    -- 4.窗口之后自动删除 PEXPIRE key window
+    redis.call('pexpire', key, window)
+end
+return 0
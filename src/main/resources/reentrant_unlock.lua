@@ -0,0 +1,24 @@
+-- 锁的key
+local key = KEYS[1]
+-- 锁释放时通知等待者的频道
+local channel = KEYS[2]
+-- 线程标示
+local threadId = ARGV[1]
+-- 锁的有效期（毫秒）
+local releaseTime = ARGV[2]
+
+-- 判断锁是否还是自己持有
+if(redis.call('hexists', key, threadId) == 0) then
+    return nil
+end
+-- 重入次数-1
+local count = redis.call('hincrby', key, threadId, -1)
+if(count > 0) then
+    -- 仍然持有，重置有效期
+    redis.call('pexpire', key, releaseTime)
+    return 0
+end
+-- 完全释放，删除锁并通知等待者
+redis.call('del', key)
+redis.call('publish', channel, threadId)
+return 1
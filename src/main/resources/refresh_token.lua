@@ -0,0 +1,15 @@
+-- 1.参数列表
+-- 1.1.token的key
+local tokenKey = KEYS[1]
+-- 1.2.token的有效期（秒）
+local ttl = ARGV[1]
+
+-- 2.查询token对应的用户 HGETALL tokenKey
+local user = redis.call('hgetall', tokenKey)
+if (#user == 0) then
+    -- 2.1.不存在，说明token已过期或已注销
+    return user
+end
+-- 3.存在，刷新token有效期 EXPIRE tokenKey ttl
+redis.call('expire', tokenKey, ttl)
+return user
@@ -0,0 +1,5 @@
+-- 锁仍然是自己持有时续期
+if(redis.call('hexists', KEYS[1], ARGV[1]) == 1) then
+    return redis.call('pexpire', KEYS[1], ARGV[2])
+end
+return 0
@@ -0,0 +1,66 @@
+package com.hmdp;
+
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SnowflakeIdWorker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 全局ID生成器的吞吐量对比（JMH），redis使用内存中的计数器代替，只比较本地开销
+ * 运行：在IDE中执行main方法，或 mvn test-compile 后以测试classpath运行本类
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp
+ * @Author: ajie
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdWorkerBenchmark {
+
+    private RedisIdWorker incrWorker;
+
+    private RedisIdWorker segmentWorker;
+
+    private SnowflakeIdWorker snowflakeWorker;
+
+    @Setup
+    public void setup() {
+        incrWorker = IdWorkerTest.redisIdWorker(1);
+        segmentWorker = IdWorkerTest.redisIdWorker(1000);
+        snowflakeWorker = new SnowflakeIdWorker(1);
+    }
+
+    @Benchmark
+    public long redisIncr() {
+        return incrWorker.nextId("order");
+    }
+
+    @Benchmark
+    public long redisSegment() {
+        return segmentWorker.nextId("order");
+    }
+
+    @Benchmark
+    public long snowflake() {
+        return snowflakeWorker.nextId("order");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 4, 16}) {
+            Options options = new OptionsBuilder()
+                    .include(IdWorkerBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
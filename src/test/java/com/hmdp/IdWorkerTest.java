@@ -0,0 +1,157 @@
+package com.hmdp;
+
+import com.hmdp.utils.IdWorker;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SnowflakeIdWorker;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+
+/**
+ * 全局ID生成器的唯一性、单调性验证，redis使用内存中的计数器代替
+ * 吞吐量的对比见 IdWorkerBenchmark
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp
+ * @Author: ajie
+ */
+public class IdWorkerTest {
+
+    private static final int THREADS = 8;
+
+    private static final int IDS_PER_THREAD = 250_000;
+
+    /**
+     * 用内存中的计数器模拟redis的INCR、INCRBY
+     */
+    @SuppressWarnings("unchecked")
+    static StringRedisTemplate localRedis() {
+        ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+        StringRedisTemplate template = Mockito.mock(StringRedisTemplate.class);
+        ValueOperations<String, String> ops = Mockito.mock(ValueOperations.class);
+        Mockito.when(template.opsForValue()).thenReturn(ops);
+        Mockito.when(ops.increment(anyString())).thenAnswer(invocation ->
+                counters.computeIfAbsent(invocation.getArgument(0), k -> new AtomicLong()).incrementAndGet());
+        Mockito.when(ops.increment(anyString(), anyLong())).thenAnswer(invocation ->
+                counters.computeIfAbsent(invocation.getArgument(0), k -> new AtomicLong())
+                        .addAndGet(invocation.<Long>getArgument(1)));
+        return template;
+    }
+
+    static RedisIdWorker redisIdWorker(int segmentSize) {
+        RedisIdWorker worker = new RedisIdWorker();
+        ReflectionTestUtils.setField(worker, "stringRedisTemplate", localRedis());
+        ReflectionTestUtils.setField(worker, "segmentSize", segmentSize);
+        return worker;
+    }
+
+    @Test
+    @Timeout(60)
+    void testRedisIdWorkerIncr() throws Exception {
+        verify(redisIdWorker(1), THREADS, IDS_PER_THREAD / 10);
+    }
+
+    @Test
+    @Timeout(60)
+    void testRedisIdWorkerSegment() throws Exception {
+        verify(redisIdWorker(1000), THREADS, IDS_PER_THREAD);
+    }
+
+    @Test
+    @Timeout(60)
+    void testRedisIdWorkerSmallSegment() throws Exception {
+        // 号段很小时频繁切换，覆盖预取与同步获取并发的情况
+        verify(redisIdWorker(10), THREADS, IDS_PER_THREAD / 10);
+    }
+
+    @Test
+    @Timeout(60)
+    void testSnowflakeIdWorker() throws Exception {
+        verify(new SnowflakeIdWorker(1), THREADS, IDS_PER_THREAD);
+    }
+
+    @Test
+    @Timeout(60)
+    void testSnowflakeWorkersDoNotCollide() throws Exception {
+        // 两个机器id并发生成，合并后仍然唯一
+        SnowflakeIdWorker w1 = new SnowflakeIdWorker(1);
+        SnowflakeIdWorker w2 = new SnowflakeIdWorker(2);
+        long[][] ids = generate(key -> (Thread.currentThread().getId() & 1) == 0 ? w1.nextId(key) : w2.nextId(key),
+                THREADS, IDS_PER_THREAD);
+        assertUnique(ids);
+    }
+
+    @Test
+    void testSnowflakeLayout() {
+        // 高32位与RedisIdWorker一样是相对 2022-01-01 的秒数
+        long redisId = redisIdWorker(1).nextId("order");
+        long snowflakeId = new SnowflakeIdWorker(5).nextId("order");
+        Assertions.assertTrue(Math.abs((redisId >>> 32) - (snowflakeId >>> 32)) <= 1);
+        Assertions.assertEquals(5, (snowflakeId >>> 12) & SnowflakeIdWorker.MAX_WORKER_ID);
+    }
+
+    /**
+     * 多线程生成，验证每个线程内单调递增、全局唯一
+     */
+    private static void verify(IdWorker worker, int threads, int idsPerThread) throws Exception {
+        long[][] ids = generate(worker::nextId, threads, idsPerThread);
+        for (long[] threadIds : ids) {
+            for (int i = 1; i < threadIds.length; i++) {
+                Assertions.assertTrue(threadIds[i] > threadIds[i - 1], "ID不是单调递增的");
+            }
+        }
+        assertUnique(ids);
+    }
+
+    private static long[][] generate(IdSupplier supplier, int threads, int idsPerThread) throws Exception {
+        ExecutorService es = Executors.newFixedThreadPool(threads);
+        try {
+            CyclicBarrier barrier = new CyclicBarrier(threads);
+            Future<?>[] futures = new Future<?>[threads];
+            long[][] ids = new long[threads][idsPerThread];
+            for (int t = 0; t < threads; t++) {
+                long[] threadIds = ids[t];
+                futures[t] = es.submit(() -> {
+                    barrier.await();
+                    for (int i = 0; i < idsPerThread; i++) {
+                        threadIds[i] = supplier.nextId("order");
+                    }
+                    return null;
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return ids;
+        } finally {
+            es.shutdown();
+        }
+    }
+
+    /**
+     * 合并排序后相邻的ID不能相同
+     */
+    private static void assertUnique(long[][] ids) {
+        long[] all = Arrays.stream(ids).flatMapToLong(Arrays::stream).toArray();
+        Arrays.sort(all);
+        for (int i = 1; i < all.length; i++) {
+            Assertions.assertNotEquals(all[i - 1], all[i], "ID重复");
+        }
+    }
+
+    @FunctionalInterface
+    interface IdSupplier {
+        long nextId(String keyPrefix);
+    }
+}
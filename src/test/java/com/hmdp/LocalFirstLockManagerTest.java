@@ -0,0 +1,223 @@
+package com.hmdp;
+
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.LocalFirstLockManager;
+import com.hmdp.utils.LockMetrics;
+import com.hmdp.utils.LockWaitNotifier;
+import com.hmdp.utils.SimpleRedisLock;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LocalFirstLockManager的交接、超时和引用计数验证，redis的锁脚本使用内存中的实现代替（见 SimpleRedisLockTest）
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp
+ * @Author: ajie
+ */
+public class LocalFirstLockManagerTest {
+
+    private final LockWaitNotifier notifier = new LockWaitNotifier();
+
+    private final SimpleRedisLockTest.LocalLockRedis redis = SimpleRedisLockTest.localRedis(notifier);
+
+    private final LocalFirstLockManager manager = new LocalFirstLockManager();
+
+    private final LockMetrics metrics = new LockMetrics();
+
+    {
+        ReflectionTestUtils.setField(manager, "stringRedisTemplate", redis.template);
+        ReflectionTestUtils.setField(manager, "lockWaitNotifier", notifier);
+        ReflectionTestUtils.setField(manager, "lockMetrics", metrics);
+    }
+
+    private Map<?, ?> entries() {
+        return (Map<?, ?>) ReflectionTestUtils.getField(manager, "entries");
+    }
+
+    private Object entry(String name) {
+        return entries().get(name);
+    }
+
+    /**
+     * 等待指定数量的线程在本地锁上排队
+     */
+    private void awaitQueued(String name, int count) throws InterruptedException {
+        while (true) {
+            Object entry = entry(name);
+            if (entry != null && ((ReentrantLock) ReflectionTestUtils.getField(entry, "local")).getQueueLength() >= count) {
+                return;
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testHandoff() throws Exception {
+        String name = "test:handoff";
+        ILock lock = manager.getLock(name);
+        lock.lock();
+        Assertions.assertEquals(1, redis.lockCalls());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CountDownLatch acquired = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(1);
+            Future<?> waiter = executor.submit(() -> {
+                lock.lock();
+                acquired.countDown();
+                done.await();
+                lock.unlock();
+                return null;
+            });
+            awaitQueued(name, 1);
+            // 本地还有等待者，直接交接，不释放redis锁
+            lock.unlock();
+            Assertions.assertTrue(acquired.await(3, TimeUnit.SECONDS));
+            Assertions.assertEquals(1, redis.lockCalls());
+            Assertions.assertEquals(1, redis.holds("lock:" + name));
+
+            // 最后一个持有者释放redis锁
+            done.countDown();
+            waiter.get(3, TimeUnit.SECONDS);
+            Assertions.assertNull(redis.holds("lock:" + name));
+            Assertions.assertTrue(entries().isEmpty());
+            // 只有排队等待的线程算作一次竞争
+            Map<?, ?> top = (Map<?, ?>) metrics.snapshot(10).get("topContended");
+            Assertions.assertEquals(1L, top.get(name));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testNoHandoffAfterLeaseLost() throws Exception {
+        String name = "test:lease-lost";
+        ILock lock = manager.getLock(name);
+        lock.lock();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> waiter = executor.submit(() -> {
+                lock.lock();
+                try {
+                    return redis.holds("lock:" + name) != null;
+                } finally {
+                    lock.unlock();
+                }
+            });
+            awaitQueued(name, 1);
+            // redis锁过期，由看门狗发现
+            redis.expire("lock:" + name);
+            SimpleRedisLock redisLock = (SimpleRedisLock) ReflectionTestUtils.getField(entry(name), "redisLock");
+            String threadId = ReflectionTestUtils.invokeMethod(redisLock, "getThreadId");
+            ReflectionTestUtils.invokeMethod(redisLock, "renew", "lock:" + name + ":" + threadId, "lock:" + name, threadId);
+
+            // 释放时告知调用者，等待者重新获取redis锁而不是沿用已经失效的锁
+            Assertions.assertThrows(IllegalMonitorStateException.class, lock::unlock);
+            Assertions.assertTrue(waiter.get(3, TimeUnit.SECONDS));
+            Assertions.assertEquals(2, redis.lockCalls());
+            Assertions.assertNull(redis.holds("lock:" + name));
+            Assertions.assertTrue(entries().isEmpty());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testLocalTimeout() throws Exception {
+        String name = "test:local-timeout";
+        ILock lock = manager.getLock(name);
+        lock.lock();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // 本地排队超时，不访问redis
+            Assertions.assertFalse(executor.submit(() -> lock.tryLock(100, -1, TimeUnit.MILLISECONDS)).get());
+            Assertions.assertEquals(1, redis.lockCalls());
+            Assertions.assertEquals(1, (int) ReflectionTestUtils.getField(entry(name), "refs"));
+        } finally {
+            executor.shutdownNow();
+        }
+        lock.unlock();
+        Assertions.assertNull(redis.holds("lock:" + name));
+        Assertions.assertTrue(entries().isEmpty());
+    }
+
+    @Test
+    @Timeout(10)
+    void testRedisTimeout() throws Exception {
+        String name = "test:redis-timeout";
+        // 其他节点持有redis锁
+        Assertions.assertNull(redis.lock("lock:" + name, "other-node", TimeUnit.SECONDS.toMillis(30)));
+
+        ILock lock = manager.getLock(name);
+        Assertions.assertFalse(lock.tryLock(100, -1, TimeUnit.MILLISECONDS));
+        Assertions.assertTrue(entries().isEmpty());
+        Assertions.assertEquals(1, redis.holds("lock:" + name));
+    }
+
+    @Test
+    @Timeout(30)
+    void testRefCount() throws Exception {
+        String name = "test:refs";
+        ILock lock = manager.getLock(name);
+
+        // 重入
+        lock.lock();
+        Assertions.assertTrue(lock.tryLock(0, -1, TimeUnit.MILLISECONDS));
+        Assertions.assertEquals(1, redis.lockCalls());
+        lock.unlock();
+        Assertions.assertEquals(1, redis.holds("lock:" + name));
+        lock.unlock();
+        Assertions.assertNull(redis.holds("lock:" + name));
+        Assertions.assertTrue(entries().isEmpty());
+        // 释放不是自己持有的锁
+        Assertions.assertThrows(IllegalMonitorStateException.class, lock::unlock);
+
+        // 并发加锁、释放：互斥，结束后不残留本地锁和redis锁
+        int threads = 8;
+        int rounds = 200;
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger violations = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < rounds; j++) {
+                        lock.lock();
+                        try {
+                            if (inside.incrementAndGet() != 1) {
+                                violations.incrementAndGet();
+                            }
+                            inside.decrementAndGet();
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assertions.assertEquals(0, violations.get());
+        Assertions.assertNull(redis.holds("lock:" + name));
+        Assertions.assertTrue(entries().isEmpty());
+    }
+}
@@ -0,0 +1,105 @@
+package com.hmdp;
+
+import com.hmdp.config.MvcConfig;
+import com.hmdp.controller.UserController;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.service.IUserInfoService;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.ClientIpResolver;
+import com.hmdp.utils.TokenSessionStore;
+import com.hmdp.utils.UserCache;
+import com.hmdp.utils.UvRecorder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.test.context.junit.jupiter.web.SpringJUnitWebConfig;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+
+import javax.annotation.Resource;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * 拦截器的注册：登录用户的请求记录日活，未登录的请求被拦截，排除的路径可以匿名访问
+ * 只启动spring mvc，redis、数据库相关的bean都使用mock
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp
+ * @Author: ajie
+ */
+@SpringJUnitWebConfig(MvcConfigTest.TestConfig.class)
+public class MvcConfigTest {
+
+    @Configuration
+    @EnableWebMvc
+    @Import({MvcConfig.class, UserController.class})
+    static class TestConfig {
+    }
+
+    @MockBean
+    private TokenSessionStore tokenSessionStore;
+
+    @MockBean
+    private UvRecorder uvRecorder;
+
+    @MockBean
+    private IUserService userService;
+
+    @MockBean
+    private IUserInfoService userInfoService;
+
+    @MockBean
+    private UserCache userCache;
+
+    @MockBean
+    private ClientIpResolver clientIpResolver;
+
+    @Resource
+    private WebApplicationContext context;
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        mockMvc = MockMvcBuilders.webAppContextSetup(context).build();
+    }
+
+    @Test
+    void testMvcConfigIsScanned() {
+        Assertions.assertTrue(AnnotatedElementUtils.hasAnnotation(MvcConfig.class, Component.class));
+    }
+
+    @Test
+    void testAuthenticatedRequestRecordsUv() throws Exception {
+        UserDTO user = new UserDTO();
+        user.setId(1L);
+        Mockito.when(tokenSessionStore.get("token")).thenReturn(user);
+
+        mockMvc.perform(get("/user/me").header("authorization", "token")).andExpect(status().isOk());
+        Mockito.verify(uvRecorder).record(1L);
+    }
+
+    @Test
+    void testAnonymousRequest() throws Exception {
+        // 需要登录的接口被拦截
+        mockMvc.perform(get("/user/me")).andExpect(status().isUnauthorized());
+        // 排除的路径可以匿名访问
+        Mockito.when(userService.sendCode(anyString(), any(), any())).thenReturn(Result.ok());
+        mockMvc.perform(post("/user/code").param("phone", "13800000000")).andExpect(status().isOk());
+        Mockito.verify(uvRecorder, Mockito.never()).record(Mockito.anyLong());
+    }
+}
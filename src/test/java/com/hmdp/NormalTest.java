@@ -1,6 +1,24 @@
 package com.hmdp;
 
+import cn.hutool.jwt.JWT;
+import cn.hutool.jwt.signers.JWTSignerUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.ClientIpResolver;
+import com.hmdp.utils.LockMetrics;
+import com.hmdp.utils.ShopAttributeTable;
+import com.hmdp.utils.SignBitmaps;
+import com.hmdp.utils.SignedTokenManager;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
 
 /**
  * @BelongsProject: ajie_comment
@@ -47,4 +65,107 @@ public class NormalTest {
         System.out.println("time2 = " + (t4 - t3));
         System.out.println("count2 = " + count2);
     }
+
+    @Test
+    void testSignBitmaps() {
+        // redis中第1、2、3、5、6天签到：11101100
+        int bits = SignBitmaps.fromBytes(new byte[]{(byte) 0b11101100});
+        Assertions.assertEquals(0b110111, bits);
+        Assertions.assertEquals(2, SignBitmaps.streakEndingAt(bits, 6));
+        Assertions.assertEquals(0, SignBitmaps.streakEndingAt(bits, 4));
+        Assertions.assertEquals(3, SignBitmaps.streakFromFirstDay(bits));
+        Assertions.assertEquals(3, SignBitmaps.longestStreak(bits));
+        Assertions.assertEquals(Arrays.asList(1, 2, 3, 5, 6), SignBitmaps.days(bits));
+        // 整月31天全部签到
+        int full = SignBitmaps.fromBytes(new byte[]{-1, -1, -1, (byte) 0xFE});
+        Assertions.assertEquals(31, SignBitmaps.streakEndingAt(full, 31));
+        Assertions.assertEquals(31, SignBitmaps.longestStreak(full));
+        Assertions.assertEquals(0, SignBitmaps.fromBytes(null));
+    }
+
+    @Test
+    void testShopOpenHours() {
+        ShopAttributeTable.Attributes day = ShopAttributeTable.Attributes.of(new Shop().setOpenHours("10:00-22:00"));
+        Assertions.assertTrue(day.isOpen(LocalTime.of(10, 0)));
+        Assertions.assertFalse(day.isOpen(LocalTime.of(22, 0)));
+        // 跨越零点
+        ShopAttributeTable.Attributes night = ShopAttributeTable.Attributes.of(new Shop().setOpenHours("18:00-02:00"));
+        Assertions.assertTrue(night.isOpen(LocalTime.of(1, 30)));
+        Assertions.assertFalse(night.isOpen(LocalTime.of(12, 0)));
+        Assertions.assertTrue(ShopAttributeTable.Attributes.of(new Shop().setOpenHours("00:00-24:00")).isOpen(LocalTime.of(23, 59)));
+        Assertions.assertFalse(ShopAttributeTable.Attributes.of(new Shop().setOpenHours("全天")).isOpen(LocalTime.NOON));
+    }
+
+    @Test
+    void testSignedToken() {
+        byte[] secret = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+        SignedTokenManager manager = new SignedTokenManager();
+        // 签名模式下没有配置密钥，启动失败
+        ReflectionTestUtils.setField(manager, "authMode", "signed");
+        ReflectionTestUtils.setField(manager, "secret", "");
+        Assertions.assertThrows(IllegalStateException.class, () -> ReflectionTestUtils.invokeMethod(manager, "init"));
+
+        ReflectionTestUtils.setField(manager, "signer", JWTSignerUtil.hs256(secret));
+        UserDTO user = new UserDTO();
+        user.setId(1L);
+        String token = manager.create(user);
+        Assertions.assertEquals(1L, manager.parse(token).getId());
+        // alg=none、其他密钥签名的token都不能通过校验
+        Date expiresAt = new Date(System.currentTimeMillis() + 60_000);
+        String none = JWT.create().setPayload("id", 2).setExpiresAt(expiresAt).setSigner(JWTSignerUtil.none()).sign();
+        Assertions.assertNull(manager.parse(none));
+        String forged = JWT.create().setPayload("id", 2).setExpiresAt(expiresAt)
+                .setSigner(JWTSignerUtil.hs256("fedcba9876543210fedcba9876543210".getBytes(StandardCharsets.UTF_8))).sign();
+        Assertions.assertNull(manager.parse(forged));
+        // 没有开启签名token时不接受任何签名token
+        ReflectionTestUtils.setField(manager, "authMode", "redis");
+        ReflectionTestUtils.setField(manager, "signer", null);
+        Assertions.assertFalse(manager.isEnabled());
+        Assertions.assertNull(manager.parse(token));
+    }
+
+    @Test
+    void testClientIpResolver() {
+        ClientIpResolver resolver = new ClientIpResolver();
+        ReflectionTestUtils.setField(resolver, "trustedProxiesConfig", "10.0.0.1");
+        ReflectionTestUtils.invokeMethod(resolver, "init");
+        // 客户端直接连接时忽略伪造的 X-Forwarded-For
+        MockHttpServletRequest direct = new MockHttpServletRequest();
+        direct.setRemoteAddr("1.2.3.4");
+        direct.addHeader("X-Forwarded-For", "5.6.7.8");
+        Assertions.assertEquals("1.2.3.4", resolver.resolve(direct));
+        // 经过可信代理时，取代理追加的客户端地址，而不是客户端伪造的部分
+        MockHttpServletRequest proxied = new MockHttpServletRequest();
+        proxied.setRemoteAddr("10.0.0.1");
+        proxied.addHeader("X-Forwarded-For", "5.6.7.8, 1.2.3.4");
+        Assertions.assertEquals("1.2.3.4", resolver.resolve(proxied));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testLockMetrics() {
+        LockMetrics metrics = new LockMetrics();
+        // 获取本身慢（例如redis延迟）但没有等待，不算竞争
+        metrics.recordAcquire("order:1", 5_000_000L, true, false);
+        metrics.recordAcquire("order:2", 1_000L, true, true);
+        metrics.recordAcquire("order:3", 1_000L, false, false);
+        Map<String, Long> top = (Map<String, Long>) metrics.snapshot(10).get("topContended");
+        Assertions.assertFalse(top.containsKey("order:1"));
+        Assertions.assertEquals(1L, top.get("order:2"));
+        Assertions.assertEquals(1L, top.get("order:3"));
+
+        // 锁名称超过上限时淘汰最久没有竞争的，持续竞争的热点锁保留
+        for (int i = 0; i < 20000; i++) {
+            metrics.recordAcquire("cold:" + i, 1_000L, false, false);
+            if (i % 100 == 0) {
+                metrics.recordAcquire("order:2", 1_000L, true, true);
+            }
+        }
+        top = (Map<String, Long>) metrics.snapshot(20000).get("topContended");
+        Assertions.assertEquals(10000, top.size());
+        Assertions.assertEquals(201L, top.get("order:2"));
+        Assertions.assertFalse(top.containsKey("order:3"));
+        Assertions.assertFalse(top.containsKey("cold:0"));
+        Assertions.assertTrue(top.containsKey("cold:19999"));
+    }
 }
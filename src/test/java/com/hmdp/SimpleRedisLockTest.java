@@ -0,0 +1,292 @@
+package com.hmdp;
+
+import com.hmdp.utils.LockWaitNotifier;
+import com.hmdp.utils.SimpleRedisLock;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.mockito.Mockito;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+
+/**
+ * SimpleRedisLock的重入、释放通知和有效期验证，redis的锁脚本使用内存中的实现代替
+ * 因此这里验证的是java侧的逻辑，lua脚本本身需要连接真实redis的测试覆盖
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp
+ * @Author: ajie
+ */
+public class SimpleRedisLockTest {
+
+    /**
+     * 用内存中的map模拟 lock.lua、reentrant_unlock.lua、renew_lock.lua，
+     * 完全释放时把消息直接交给notifier，代替redis的PUBLISH
+     */
+    static LocalLockRedis localRedis(LockWaitNotifier notifier) {
+        LocalLockRedis redis = new LocalLockRedis(notifier);
+        StringRedisTemplate template = Mockito.mock(StringRedisTemplate.class);
+        Mockito.when(template.execute(any(RedisScript.class), anyList(), any())).thenAnswer(invocation -> {
+            Object script = invocation.getArgument(0);
+            List<String> keys = invocation.getArgument(1);
+            String threadId = invocation.getArgument(2);
+            long releaseTime = Long.parseLong(invocation.getArgument(3));
+            if (script == script("LOCK_SCRIPT")) {
+                return redis.lock(keys.get(0), threadId, releaseTime);
+            }
+            if (script == script("UNLOCK_SCRIPT")) {
+                return redis.unlock(keys.get(0), keys.get(1), threadId, releaseTime);
+            }
+            if (script == script("RENEW_SCRIPT")) {
+                return redis.renew(keys.get(0), threadId, releaseTime);
+            }
+            throw new UnsupportedOperationException("未知的脚本");
+        });
+        redis.template = template;
+        return redis;
+    }
+
+    private static Object script(String field) {
+        return ReflectionTestUtils.getField(SimpleRedisLock.class, field);
+    }
+
+    static class LocalLockRedis {
+        private final LockWaitNotifier notifier;
+        /**
+         * 锁的key -> 线程标示 -> 重入次数
+         */
+        private final Map<String, Map<String, Integer>> locks = new HashMap<>();
+        private final Map<String, Long> expireAt = new HashMap<>();
+        /**
+         * 执行获取锁脚本的次数
+         */
+        private int lockCalls;
+        StringRedisTemplate template;
+
+        LocalLockRedis(LockWaitNotifier notifier) {
+            this.notifier = notifier;
+        }
+
+        synchronized Long lock(String key, String threadId, long releaseTime) {
+            lockCalls++;
+            Map<String, Integer> holders = get(key);
+            if (holders == null) {
+                holders = new HashMap<>();
+                locks.put(key, holders);
+            } else if (!holders.containsKey(threadId)) {
+                return expireAt.get(key) - System.currentTimeMillis();
+            }
+            holders.merge(threadId, 1, Integer::sum);
+            expireAt.put(key, System.currentTimeMillis() + releaseTime);
+            return null;
+        }
+
+        synchronized Long unlock(String key, String channel, String threadId, long releaseTime) {
+            Map<String, Integer> holders = get(key);
+            if (holders == null || !holders.containsKey(threadId)) {
+                return null;
+            }
+            int count = holders.merge(threadId, -1, Integer::sum);
+            if (count > 0) {
+                expireAt.put(key, System.currentTimeMillis() + releaseTime);
+                return 0L;
+            }
+            locks.remove(key);
+            expireAt.remove(key);
+            publish(channel, threadId);
+            return 1L;
+        }
+
+        synchronized Long renew(String key, String threadId, long releaseTime) {
+            Map<String, Integer> holders = get(key);
+            if (holders == null || !holders.containsKey(threadId)) {
+                return 0L;
+            }
+            expireAt.put(key, System.currentTimeMillis() + releaseTime);
+            return 1L;
+        }
+
+        /**
+         * 立即让锁过期
+         */
+        synchronized void expire(String key) {
+            locks.remove(key);
+            expireAt.remove(key);
+        }
+
+        synchronized Integer holds(String key) {
+            Map<String, Integer> holders = get(key);
+            return holders == null ? null : holders.values().stream().mapToInt(Integer::intValue).sum();
+        }
+
+        synchronized int lockCalls() {
+            return lockCalls;
+        }
+
+        synchronized long pttl(String key) {
+            return get(key) == null ? -2 : expireAt.get(key) - System.currentTimeMillis();
+        }
+
+        private Map<String, Integer> get(String key) {
+            Long at = expireAt.get(key);
+            if (at != null && at <= System.currentTimeMillis()) {
+                expire(key);
+            }
+            return locks.get(key);
+        }
+
+        private void publish(String channel, String message) {
+            if (notifier != null) {
+                ReflectionTestUtils.invokeMethod(notifier, "onMessage",
+                        new DefaultMessage(channel.getBytes(StandardCharsets.UTF_8), message.getBytes(StandardCharsets.UTF_8)),
+                        "lock:channel:*".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static boolean tryLockInOtherThread(SimpleRedisLock lock, long waitMillis) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(() -> lock.tryLock(waitMillis, -1, TimeUnit.MILLISECONDS)).get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testReentrant() throws Exception {
+        LocalLockRedis redis = localRedis(null);
+        SimpleRedisLock lock = new SimpleRedisLock("test:reentrant", redis.template);
+
+        lock.lock();
+        Assertions.assertTrue(lock.tryLock(0, -1, TimeUnit.MILLISECONDS));
+        Assertions.assertEquals(2, redis.holds("lock:test:reentrant"));
+        Assertions.assertFalse(tryLockInOtherThread(lock, 0));
+
+        // 释放一层，仍然持有
+        lock.unlock();
+        Assertions.assertEquals(1, redis.holds("lock:test:reentrant"));
+        Assertions.assertFalse(tryLockInOtherThread(lock, 0));
+
+        // 完全释放，看门狗停止续期
+        lock.unlock();
+        Assertions.assertNull(redis.holds("lock:test:reentrant"));
+        Map<?, ?> renewEntries = (Map<?, ?>) ReflectionTestUtils.getField(SimpleRedisLock.class, "RENEW_ENTRIES");
+        Assertions.assertTrue(renewEntries.keySet().stream().noneMatch(k -> k.toString().startsWith("lock:test:reentrant:")));
+        // 释放之后再释放，不是自己持有的锁
+        Assertions.assertThrows(IllegalMonitorStateException.class, lock::unlock);
+    }
+
+    @Test
+    @Timeout(10)
+    void testWakeUpOnRelease() throws Exception {
+        LockWaitNotifier notifier = new LockWaitNotifier();
+        LocalLockRedis redis = localRedis(notifier);
+        SimpleRedisLock lock = new SimpleRedisLock("test:wake", redis.template, notifier);
+        lock.lock();
+
+        // 看门狗的有效期为30秒，等待者只能通过释放的通知拿到锁
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> waiter = executor.submit(() -> {
+                boolean isLock = lock.tryLock(TimeUnit.SECONDS.toMillis(5), 1000, TimeUnit.MILLISECONDS);
+                if (isLock) {
+                    lock.unlock();
+                }
+                return isLock;
+            });
+            Map<?, ?> waiters = (Map<?, ?>) ReflectionTestUtils.getField(notifier, "waiters");
+            while (!waiters.containsKey("lock:channel:test:wake")) {
+                Thread.sleep(5);
+            }
+            lock.unlock();
+            Assertions.assertTrue(waiter.get(3, TimeUnit.SECONDS));
+            Assertions.assertTrue(waiters.isEmpty());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testLeaseExpiry() throws Exception {
+        LocalLockRedis redis = localRedis(null);
+        SimpleRedisLock lock = new SimpleRedisLock("test:lease", redis.template);
+
+        // 指定有效期，不续期
+        Assertions.assertTrue(lock.tryLock(0, 200, TimeUnit.MILLISECONDS));
+        Assertions.assertTrue(redis.pttl("lock:test:lease") <= 200);
+        // 有效期过后其他线程可以获取
+        Assertions.assertTrue(tryLockInOtherThread(lock, TimeUnit.SECONDS.toMillis(3)));
+        // 原来的持有者释放时锁已经不属于自己，抛出异常并且不影响新的持有者
+        Assertions.assertThrows(IllegalMonitorStateException.class, lock::unlock);
+        Assertions.assertEquals(1, redis.holds("lock:test:lease"));
+    }
+
+    @Test
+    @Timeout(10)
+    void testWatchdogRenew() {
+        LocalLockRedis redis = localRedis(null);
+        SimpleRedisLock lock = new SimpleRedisLock("test:watchdog", redis.template);
+        lock.lock();
+        String threadId = ReflectionTestUtils.invokeMethod(lock, "getThreadId");
+        String key = "lock:test:watchdog";
+        String entryKey = key + ":" + threadId;
+        Map<?, ?> renewEntries = (Map<?, ?>) ReflectionTestUtils.getField(SimpleRedisLock.class, "RENEW_ENTRIES");
+        Assertions.assertTrue(renewEntries.containsKey(entryKey));
+
+        // 续期重置为完整的有效期
+        ReflectionTestUtils.invokeMethod(lock, "renew", entryKey, key, threadId);
+        Assertions.assertTrue(redis.pttl(key) > TimeUnit.SECONDS.toMillis(29));
+
+        // 锁已经失效，停止续期，释放时抛出异常
+        redis.expire(key);
+        ReflectionTestUtils.invokeMethod(lock, "renew", entryKey, key, threadId);
+        Assertions.assertFalse(renewEntries.containsKey(entryKey));
+        Assertions.assertThrows(IllegalMonitorStateException.class, lock::unlock);
+    }
+
+    @Test
+    @Timeout(10)
+    void testMixedLeaseModes() throws Exception {
+        LocalLockRedis redis = localRedis(null);
+        SimpleRedisLock lock = new SimpleRedisLock("test:mixed", redis.template);
+        String threadId = ReflectionTestUtils.invokeMethod(lock, "getThreadId");
+        String key = "lock:test:mixed";
+        String entryKey = key + ":" + threadId;
+        Map<?, ?> renewEntries = (Map<?, ?>) ReflectionTestUtils.getField(SimpleRedisLock.class, "RENEW_ENTRIES");
+
+        // 看门狗模式加锁，再指定有效期重入：不缩短有效期，释放内层之后看门狗继续续期
+        lock.lock();
+        Assertions.assertTrue(lock.tryLock(0, 5, TimeUnit.SECONDS));
+        Assertions.assertTrue(redis.pttl(key) > TimeUnit.SECONDS.toMillis(29));
+        lock.unlock();
+        Assertions.assertEquals(1, redis.holds(key));
+        Assertions.assertTrue(renewEntries.containsKey(entryKey));
+        lock.unlock();
+        Assertions.assertNull(redis.holds(key));
+        Assertions.assertFalse(renewEntries.containsKey(entryKey));
+
+        // 指定有效期加锁，再以看门狗模式重入：释放内层之后仍然持有，完全释放时停止续期
+        Assertions.assertTrue(lock.tryLock(0, 5, TimeUnit.SECONDS));
+        lock.lock();
+        lock.unlock();
+        Assertions.assertEquals(1, redis.holds(key));
+        Assertions.assertTrue(renewEntries.containsKey(entryKey));
+        lock.unlock();
+        Assertions.assertNull(redis.holds(key));
+        Assertions.assertFalse(renewEntries.containsKey(entryKey));
+    }
+}
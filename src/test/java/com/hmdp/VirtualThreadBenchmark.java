@@ -0,0 +1,88 @@
+package com.hmdp;
+
+import com.hmdp.utils.VirtualThreads;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 平台线程池与虚拟线程执行阻塞任务的对比（JMH），每次执行 TASKS 个 Thread.sleep(BLOCKING_MILLIS) 的任务
+ * 这是合成的基准：任务只有等待，没有真实的redis、jdbc调用，连接池大小、序列化和CPU开销都不在其中，
+ * 只能说明线程数对纯等待型任务吞吐的上限，不能代表接口的实际收益，实际收益需要对运行中的服务压测
+ * 只输出耗时，不做断言；virtual 需要jdk21及以上（mvn test-compile -Pjdk21）
+ * 运行：在IDE中执行main方法，或 mvn test-compile 后以测试classpath运行本类
+ *
+ * @BelongsProject: ajie_comment
+ * @BelongsPackage: com.hmdp
+ * @Author: ajie
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VirtualThreadBenchmark {
+
+    private static final int TASKS = 2000;
+
+    private static final long BLOCKING_MILLIS = 20;
+
+    /**
+     * 与tomcat默认的最大线程数一致
+     */
+    private static final int PLATFORM_THREADS = 200;
+
+    @Param({"platform", "virtual"})
+    private String executor;
+
+    private ExecutorService es;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        if ("virtual".equals(executor)) {
+            if (!VirtualThreads.isAvailable()) {
+                throw new IllegalStateException("当前jdk不支持虚拟线程");
+            }
+            es = VirtualThreads.newVirtualThreadPerTaskExecutor();
+        } else {
+            es = Executors.newFixedThreadPool(PLATFORM_THREADS);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        es.shutdown();
+    }
+
+    @Benchmark
+    public void sleepingTasks() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(TASKS);
+        for (int i = 0; i < TASKS; i++) {
+            es.submit(() -> {
+                try {
+                    Thread.sleep(BLOCKING_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(VirtualThreadBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}